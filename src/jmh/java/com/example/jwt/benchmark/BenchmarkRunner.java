@@ -0,0 +1,35 @@
+package com.example.jwt.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark (or the ones matching the given regexes) once single threaded and once
+ * with one thread per core, with the gc profiler attached so the allocation rate is reported too.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[] {1, cores}) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .result("target/jmh-result-" + threads + "-threads.json")
+                .resultFormat(org.openjdk.jmh.results.format.ResultFormatType.JSON);
+            if (args.length == 0) {
+                options.include(BenchmarkRunner.class.getPackageName() + ".*Benchmark");
+            }
+            for (String include : args) {
+                options.include(include);
+            }
+            new Runner(options.build()).run();
+            if (cores == 1) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.jwt.benchmark;
+
+import com.example.jwt.filters.RateLimiter;
+import com.example.jwt.model.User;
+import com.example.jwt.model.UserPrincipal;
+import com.example.jwt.service.AuthMetrics;
+import com.example.jwt.service.JwtService;
+import com.example.jwt.service.SigningKeyRing;
+import com.example.jwt.service.TokenPreValidator;
+import com.example.jwt.service.TokenRevocationService;
+import com.example.jwt.service.UserService;
+import com.example.jwt.service.VerifiedTokenCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Builds the services the benchmarks need without starting spring or a database.
+ */
+final class Fixtures {
+
+    static final String USER_NAME = "bench-user";
+
+    static final User USER = User.builder().id(1).userName(USER_NAME).password("{noop}secret")
+        .roles(List.of("USER", "ADMIN")).build();
+
+    static final MeterRegistry METER_REGISTRY = new SimpleMeterRegistry();
+
+    private Fixtures() {
+    }
+
+    static AuthMetrics authMetrics() {
+        return new AuthMetrics(METER_REGISTRY);
+    }
+
+    // the default rule of the order endpoints, valid tokens only look at the IP bucket without taking from it
+    static RateLimiter rateLimiter() {
+        return new RateLimiter(METER_REGISTRY, true, List.of("/orders/**=100/PT1S"), 100_000);
+    }
+
+    static VerifiedTokenCache verifiedTokenCache(boolean enabled) {
+        return new VerifiedTokenCache(METER_REGISTRY, enabled ? 10_000 : 0);
+    }
+
+    static JwtService jwtService(boolean selfContainedTokens) {
+        return jwtService(selfContainedTokens, true);
+    }
+
+    static JwtService jwtService(boolean selfContainedTokens, boolean fastMinting) {
+        JwtService jwtService = new JwtService(signingKeyRing(),
+            new TokenPreValidator(4096, 10_000, Duration.ofMinutes(1)), authMetrics(), fastMinting);
+        ReflectionTestUtils.setField(jwtService, "selfContainedTokens", selfContainedTokens);
+        return jwtService;
+    }
+
+    static SigningKeyRing signingKeyRing() {
+        try {
+            Path keystore = Files.createTempDirectory("jwt-bench").resolve("jwt-keys.p12");
+            return new SigningKeyRing(keystore, "benchmark", 3, false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Revocation checks only read memory, the repository is only needed to load and store revocations.
+     */
+    static TokenRevocationService tokenRevocationService(JwtService jwtService) {
+        return new TokenRevocationService(null, jwtService, 1000, Duration.ofSeconds(10));
+    }
+
+    /**
+     * A UserService that answers from memory, so the filter benchmark measures the filter and not postgres.
+     */
+    static UserService stubUserService(VerifiedTokenCache verifiedTokenCache) {
+        return new UserService(null, null, verifiedTokenCache, METER_REGISTRY, 1, Duration.ofMinutes(5), 100) {
+            @Override
+            public UserDetails loadUserByUsername(String username) {
+                return new UserPrincipal(USER);
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.jwt.benchmark;
+
+import com.example.jwt.filters.JwtFilter;
+import com.example.jwt.model.UserPrincipal;
+import com.example.jwt.service.JwtService;
+import com.example.jwt.service.VerifiedTokenCache;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full pass through the JwtFilter with mock servlet objects, as done for every authenticated request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    /**
+     * false turns the verified-token cache off to measure the cold path, every pass verifies the token.
+     */
+    @Param({"true", "false"})
+    private boolean tokenCache;
+
+    @Param({"false", "true"})
+    private boolean selfContainedTokens;
+
+    private JwtFilter jwtFilter;
+
+    private String authorizationHeader;
+
+    @Setup
+    public void setUp() {
+        JwtService jwtService = Fixtures.jwtService(selfContainedTokens);
+        VerifiedTokenCache verifiedTokenCache = Fixtures.verifiedTokenCache(tokenCache);
+        jwtFilter = new JwtFilter(jwtService, null, Fixtures.stubUserService(verifiedTokenCache),
+            verifiedTokenCache, Fixtures.tokenRevocationService(jwtService), Fixtures.authMetrics(),
+            Fixtures.rateLimiter());
+        authorizationHeader = "Bearer " + jwtService.generateAccessToken(Fixtures.USER_NAME,
+            new UserPrincipal(Fixtures.USER).getAuthorities());
+    }
+
+    @Benchmark
+    public void doFilter(Blackhole blackhole) throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/orders");
+        request.addHeader("Authorization", authorizationHeader);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = (req, res) -> blackhole.consume(SecurityContextHolder.getContext().getAuthentication());
+        try {
+            jwtFilter.doFilter(request, response, chain);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.jwt.benchmark;
+
+import com.example.jwt.model.LoginResponse;
+import com.example.jwt.model.UserPrincipal;
+import com.example.jwt.model.VerifiedToken;
+import com.example.jwt.service.JwtService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minting and verifying tokens through JwtService.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenBenchmark {
+
+    @Param({"false", "true"})
+    private boolean selfContainedTokens;
+
+    // false mints every token through the jjwt builder
+    @Param({"false", "true"})
+    private boolean fastMinting;
+
+    private JwtService jwtService;
+
+    private UserPrincipal userPrincipal;
+
+    private String accessToken;
+
+    @Setup
+    public void setUp() {
+        jwtService = Fixtures.jwtService(selfContainedTokens, fastMinting);
+        userPrincipal = new UserPrincipal(Fixtures.USER);
+        accessToken = jwtService.generateAccessToken(Fixtures.USER_NAME, userPrincipal.getAuthorities());
+    }
+
+    @Benchmark
+    public String generateAccessToken() {
+        return jwtService.generateAccessToken(Fixtures.USER_NAME, userPrincipal.getAuthorities());
+    }
+
+    @Benchmark
+    public LoginResponse generateTokens() {
+        return jwtService.generateTokens(Fixtures.USER_NAME, userPrincipal.getAuthorities());
+    }
+
+    @Benchmark
+    public VerifiedToken verify() {
+        return jwtService.verify(accessToken);
+    }
+
+    @Benchmark
+    public boolean validateToken() {
+        return jwtService.validateToken(accessToken, userPrincipal);
+    }
+}
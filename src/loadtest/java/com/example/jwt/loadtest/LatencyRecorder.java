@@ -0,0 +1,70 @@
+package com.example.jwt.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies and status codes seen by one client during one scenario. Every client has its own
+ * recorder so recording needs no synchronization, they are merged once the scenario is over.
+ */
+final class LatencyRecorder {
+
+    private long[] latencies = new long[4096];
+
+    private int count;
+
+    private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+    void record(long latencyNanos, int status) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        statuses.merge(status, 1, Integer::sum);
+    }
+
+    static Result merge(Iterable<LatencyRecorder> recorders, long elapsedNanos) {
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.count;
+        }
+        long[] all = new long[total];
+        Map<Integer, Integer> statuses = new TreeMap<>();
+        int offset = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, all, offset, recorder.count);
+            offset += recorder.count;
+            recorder.statuses.forEach((status, count) -> statuses.merge(status, count, Integer::sum));
+        }
+        Arrays.sort(all);
+
+        int errors = statuses.entrySet().stream()
+            .filter(entry -> entry.getKey() < 200 || entry.getKey() >= 300)
+            .mapToInt(Map.Entry::getValue)
+            .sum();
+        return new Result(total, errors, total / (elapsedNanos / 1e9), millis(percentile(all, 0.50)),
+            millis(percentile(all, 0.90)), millis(percentile(all, 0.99)), millis(percentile(all, 0.999)),
+            millis(total == 0 ? 0 : all[total - 1]), statuses);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    /**
+     * Numbers of one scenario as they appear in the report, latencies are in milliseconds.
+     * Requests that were answered with anything but a 2xx are counted as errors but their latency is kept.
+     */
+    record Result(int requests, int errors, double throughput, double p50, double p90, double p99, double p999,
+                  double max, Map<Integer, Integer> statuses) {
+    }
+}
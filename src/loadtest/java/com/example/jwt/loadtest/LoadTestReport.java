@@ -0,0 +1,67 @@
+package com.example.jwt.loadtest;
+
+import tools.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prints the numbers of a run and writes them to {@code loadtest-<label>.json} in the report directory.
+ * With a baseline report the change of throughput and latencies against it is printed as well.
+ */
+final class LoadTestReport {
+
+    private LoadTestReport() {
+    }
+
+    static void write(LoadTestSettings settings, Map<Scenario, LatencyRecorder.Result> results) throws IOException {
+        JsonNode baseline = settings.baseline() == null ? null : LoadTestRunner.JSON.readTree(settings.baseline().toFile());
+
+        System.out.printf("%n%-12s %10s %8s %10s %9s %9s %9s %9s %9s%n", "scenario", "requests", "errors",
+            "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Map<String, LatencyRecorder.Result> byName = new LinkedHashMap<>();
+        results.forEach((scenario, result) -> {
+            byName.put(scenario.displayName(), result);
+            System.out.printf("%-12s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", scenario.displayName(),
+                result.requests(), result.errors(), result.throughput(), result.p50(), result.p90(), result.p99(),
+                result.p999(), result.max());
+            if (result.errors() > 0) {
+                System.out.printf("%-12s statuses %s%n", "", result.statuses());
+            }
+            if (baseline != null && baseline.path("scenarios").has(scenario.displayName())) {
+                JsonNode before = baseline.path("scenarios").path(scenario.displayName());
+                System.out.printf("%-12s vs %s: req/s %s, p50 %s, p99 %s%n", "",
+                    baseline.path("label").asString(), change(before.path("throughput").asDouble(), result.throughput()),
+                    change(before.path("p50").asDouble(), result.p50()), change(before.path("p99").asDouble(), result.p99()));
+            }
+        });
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", settings.label());
+        report.put("timestamp", Instant.now().toString());
+        report.put("users", settings.users());
+        report.put("orders", settings.orders());
+        report.put("clients", settings.clients());
+        report.put("warmup", settings.warmup().toString());
+        report.put("duration", settings.duration().toString());
+        report.put("cores", Runtime.getRuntime().availableProcessors());
+        report.put("javaVersion", Runtime.version().toString());
+        report.put("notCovered", LoadTestRunner.NOT_COVERED);
+        report.put("scenarios", byName);
+
+        Path file = settings.reportDir().resolve("loadtest-" + settings.label() + ".json");
+        LoadTestRunner.JSON.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        System.out.println("\nreport written to " + file.toAbsolutePath());
+    }
+
+    private static String change(double before, double after) {
+        if (before == 0) {
+            return "n/a";
+        }
+        return String.format("%+.1f%%", (after - before) / before * 100);
+    }
+}
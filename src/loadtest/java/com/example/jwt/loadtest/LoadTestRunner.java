@@ -0,0 +1,251 @@
+package com.example.jwt.loadtest;
+
+import com.example.jwt.JwtApplication;
+import com.example.jwt.model.CustomerOrder;
+import com.example.jwt.model.User;
+import com.example.jwt.repo.UserRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts the application on a random port against an in-memory H2 database in PostgreSQL mode,
+ * seeds users and orders and then runs every scenario with concurrent virtual thread clients over
+ * real HTTP, so each request goes through the whole security filter chain. The numbers of every
+ * scenario are printed and written to a json report that later runs can be compared with.
+ * <p>
+ * What an H2 run leaves out is listed in {@link #NOT_COVERED}, printed before the run and kept in the report.
+ */
+public class LoadTestRunner {
+
+    static final String PASSWORD = "load-test-password";
+
+    static final JsonMapper JSON = JsonMapper.builder().build();
+
+    static final List<String> NOT_COVERED = List.of(
+        "rate limiting: RateLimitFilter buckets and the JwtFilter's charge for rejected tokens are off, "
+            + "every simulated client comes from localhost and would share one bucket",
+        "spring.sql.init scripts: the customer_key and updated_at backfills and the search_vector column "
+            + "with its GIN index, they are postgres specific and the schema is created fresh",
+        "the orders batch insert, its on conflict clause is postgres only, orders are seeded with plain JDBC",
+        "postgres itself: query plans, locking and connection behaviour are H2's");
+
+    private final LoadTestSettings settings;
+
+    private final HttpClient httpClient;
+
+    private final String baseUrl;
+
+    private LoadTestRunner(LoadTestSettings settings, int port) {
+        this.settings = settings;
+        this.baseUrl = "http://localhost:" + port;
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.parse(args);
+        Files.createDirectories(settings.reportDir());
+
+        // system properties win over application.properties, the arguments passed on still win over these
+        System.setProperty("spring.datasource.url",
+            "jdbc:h2:mem:loadtest;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1");
+        System.setProperty("spring.datasource.username", "sa");
+        System.setProperty("spring.datasource.password", "");
+        System.setProperty("spring.jpa.hibernate.ddl-auto", "create-drop");
+        // the migration scripts are postgres specific and a fresh schema doesn't need them
+        System.setProperty("spring.sql.init.mode", "never");
+        System.setProperty("server.port", "0");
+        System.setProperty("management.server.port", "0");
+        // every simulated client comes from localhost and would share one bucket
+        System.setProperty("rate-limit.enabled", "false");
+        System.setProperty("jwt.keys.keystore", settings.reportDir().resolve("jwt-keys.p12").toString());
+
+        System.out.println("not covered by this run, it uses H2:");
+        NOT_COVERED.forEach(item -> System.out.println("  - " + item));
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(JwtApplication.class)
+            .run(settings.applicationArgs())) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            seed(context, settings);
+
+            LoadTestRunner runner = new LoadTestRunner(settings, port);
+            Map<Scenario, LatencyRecorder.Result> results = new LinkedHashMap<>();
+            for (Scenario scenario : settings.scenarios()) {
+                System.out.printf("running %s with %d clients for %s after %s warmup%n", scenario.displayName(),
+                    settings.clients(), settings.duration(), settings.warmup());
+                results.put(scenario, runner.run(scenario));
+            }
+            LoadTestReport.write(settings, results);
+        }
+    }
+
+    /**
+     * Users all share one password hash, hashing it once per user at the calibrated bcrypt cost would
+     * take longer than the test. Orders are spread evenly over the users and inserted with plain JDBC
+     * batches, the application's batch insert uses PostgreSQL's on conflict clause which H2 can't parse.
+     */
+    private static void seed(ConfigurableApplicationContext context, LoadTestSettings settings) {
+        long start = System.nanoTime();
+        String passwordHash = context.getBean(PasswordEncoder.class).encode(PASSWORD);
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        List<User> users = new ArrayList<>(1000);
+        for (int i = 0; i < settings.users(); i++) {
+            users.add(User.builder().userName(userName(i)).password(passwordHash)
+                .roles(new ArrayList<>(List.of("USER"))).build());
+            if (users.size() == 1000) {
+                userRepository.saveAll(users);
+                users.clear();
+            }
+        }
+        userRepository.saveAll(users);
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        List<Object[]> orders = new ArrayList<>(1000);
+        for (int i = 0; i < settings.orders(); i++) {
+            String customerName = userName(i % settings.users());
+            orders.add(new Object[] {orderId(i), "product-" + (i % 100), customerName, i + " Load Test Street",
+                CustomerOrder.normalizeCustomerName(customerName)});
+            if (orders.size() == 1000 || i == settings.orders() - 1) {
+                jdbcTemplate.batchUpdate("insert into customer_orders "
+                    + "(order_id, product_name, customer_name, delivery_address, customer_key) values (?, ?, ?, ?, ?)",
+                    orders);
+                orders.clear();
+            }
+        }
+        System.out.printf("seeded %d users and %d orders in %d ms%n", settings.users(), settings.orders(),
+            (System.nanoTime() - start) / 1_000_000);
+    }
+
+    static String userName(int index) {
+        return "load-user-" + index;
+    }
+
+    static String orderId(int index) {
+        return "LOAD-" + index;
+    }
+
+    /**
+     * Every client logs in first so it has fresh tokens, then sends requests back to back until the
+     * warmup and the measured duration are over. Only requests started after the warmup are recorded.
+     */
+    private LatencyRecorder.Result run(Scenario scenario) throws InterruptedException {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < settings.clients(); i++) {
+            recorders.add(new LatencyRecorder());
+            clients.add(new Client(userName(i % settings.users())));
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Client client : clients) {
+                executor.submit(() -> {
+                    client.login();
+                    return null;
+                });
+            }
+        }
+
+        long measureFrom = System.nanoTime() + settings.warmup().toNanos();
+        long measureUntil = measureFrom + settings.duration().toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients.size(); i++) {
+                Client client = clients.get(i);
+                LatencyRecorder recorder = recorders.get(i);
+                executor.submit(() -> {
+                    long now;
+                    while ((now = System.nanoTime()) < measureUntil) {
+                        int status = client.send(scenario);
+                        if (now >= measureFrom) {
+                            recorder.record(System.nanoTime() - now, status);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        return LatencyRecorder.merge(recorders, settings.duration().toNanos());
+    }
+
+    /**
+     * One simulated user, it keeps the tokens of its last login or refresh.
+     */
+    private final class Client {
+
+        private final String userName;
+
+        private String accessToken;
+
+        private String refreshToken;
+
+        Client(String userName) {
+            this.userName = userName;
+        }
+
+        void login() throws IOException, InterruptedException {
+            int status = send(Scenario.LOGIN);
+            if (status != 200) {
+                throw new IllegalStateException(userName + " could not log in, status " + status);
+            }
+        }
+
+        int send(Scenario scenario) throws IOException, InterruptedException {
+            HttpResponse<String> response = httpClient.send(request(scenario), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200 && (scenario == Scenario.LOGIN || scenario == Scenario.REFRESH)) {
+                JsonNode tokens = JSON.readTree(response.body());
+                // a rejected refresh token is answered with 200 and empty tokens
+                if (!tokens.path("accessToken").isString()) {
+                    return 401;
+                }
+                accessToken = tokens.path("accessToken").asString();
+                refreshToken = tokens.path("refreshToken").asString();
+            }
+            return response.statusCode();
+        }
+
+        private HttpRequest request(Scenario scenario) {
+            return switch (scenario) {
+                case LOGIN -> post("/user/login", Map.of("userName", userName, "password", PASSWORD));
+                case REFRESH -> post("/user/refresh-token", Map.of("refreshToken", refreshToken));
+                case ORDERS -> get("/orders?size=100");
+                case MY_ORDERS -> get("/orders/my-orders?size=100");
+                case ORDER_BY_ID -> get("/orders/orderId?orderId="
+                    + orderId(ThreadLocalRandom.current().nextInt(settings.orders())));
+            };
+        }
+
+        private HttpRequest post(String path, Map<String, String> body) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(JSON.writeValueAsString(body)))
+                .build();
+        }
+
+        private HttpRequest get(String path) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", "Bearer " + accessToken)
+                .GET()
+                .build();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.jwt.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of one load test run, parsed from {@code key=value} arguments. Arguments starting with
+ * {@code --} are not settings, they are passed on to the application.
+ *
+ * @param users       users seeded before the run, every client logs in as one of them
+ * @param orders      orders seeded before the run, spread evenly over the users
+ * @param clients     concurrent clients, each one a virtual thread sending one request at a time
+ * @param warmup      time every scenario runs before latencies are recorded
+ * @param duration    time every scenario is measured
+ * @param scenarios   scenarios to run, in this order
+ * @param label       name of the run in the report, e.g. the commit that was built
+ * @param reportDir   directory the json report is written to
+ * @param baseline    report of an earlier run to compare with, or null
+ * @param applicationArgs arguments passed on to the application
+ */
+record LoadTestSettings(int users, int orders, int clients, Duration warmup, Duration duration,
+                        List<Scenario> scenarios, String label, Path reportDir, Path baseline,
+                        String[] applicationArgs) {
+
+    static LoadTestSettings parse(String[] args) {
+        Map<String, String> settings = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                applicationArgs.add(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("expected key=value but got " + arg);
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        String scenarios = settings.remove("scenarios");
+        String baseline = settings.remove("baseline");
+        LoadTestSettings parsed = new LoadTestSettings(
+            Integer.parseInt(take(settings, "users", "1000")),
+            Integer.parseInt(take(settings, "orders", "100000")),
+            Integer.parseInt(take(settings, "clients", "64")),
+            Duration.parse(take(settings, "warmup", "PT5S")),
+            Duration.parse(take(settings, "duration", "PT20S")),
+            scenarios == null ? List.of(Scenario.values())
+                : Arrays.stream(scenarios.split(",")).map(String::trim).map(Scenario::fromName).toList(),
+            take(settings, "label", "local"),
+            Path.of(take(settings, "report-dir", "target/loadtest")),
+            baseline == null ? null : Path.of(baseline),
+            applicationArgs.toArray(String[]::new));
+        if (!settings.isEmpty()) {
+            throw new IllegalArgumentException("unknown settings " + settings.keySet());
+        }
+        if (parsed.users() < 1 || parsed.orders() < 1 || parsed.clients() < 1) {
+            throw new IllegalArgumentException("users, orders and clients must be at least 1");
+        }
+        return parsed;
+    }
+
+    private static String take(Map<String, String> settings, String key, String defaultValue) {
+        String value = settings.remove(key);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.jwt.loadtest;
+
+import java.util.Locale;
+
+/**
+ * The HTTP paths the load test drives. Every scenario is run and reported on its own.
+ */
+enum Scenario {
+
+    // POST /user/login, dominated by the bcrypt check and limited by the password hashing pool
+    LOGIN,
+
+    // POST /user/refresh-token, rotates the client's refresh token on every call
+    REFRESH,
+
+    // GET /orders, the first page of all orders
+    ORDERS,
+
+    // GET /orders/my-orders, the first page of the logged in user's orders
+    MY_ORDERS,
+
+    // GET /orders/orderId, a random seeded order by its order id
+    ORDER_BY_ID;
+
+    String displayName() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    static Scenario fromName(String name) {
+        for (Scenario scenario : values()) {
+            if (scenario.displayName().equals(name) || scenario.name().equalsIgnoreCase(name)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("unknown scenario " + name);
+    }
+}
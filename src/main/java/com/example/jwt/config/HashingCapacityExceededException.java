@@ -0,0 +1,22 @@
+package com.example.jwt.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Thrown when the password hashing queue is full, spring turns it into a 503 with a Retry-After header.
+ */
+public class HashingCapacityExceededException extends ResponseStatusException {
+
+    public HashingCapacityExceededException() {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent logins, please retry shortly");
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return headers;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.jwt.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Authenticates the services allowed to call POST /token/introspect, with HTTP Basic as in RFC 7662.
+ * Clients are configured in jwt.introspection.clients as "client-id:sha-256 hex of the secret". The secrets
+ * are long random strings rather than passwords, so a digest compared in constant time is enough and a
+ * gateway's call doesn't pay for bcrypt. These clients are not users, they can't call anything else.
+ * <p>
+ * Deliberately not a bean: a second AuthenticationProvider bean would keep spring security from wiring
+ * the user provider into the global AuthenticationManager.
+ */
+@Slf4j
+public class IntrospectionClientAuthenticationProvider implements AuthenticationProvider {
+
+    public static final String ROLE = "INTROSPECTION_CLIENT";
+
+    private final Map<String, byte[]> secretDigests = new HashMap<>();
+
+    public IntrospectionClientAuthenticationProvider(List<String> clients) {
+        for (String client : clients) {
+            if (client.isBlank()) {
+                continue;
+            }
+            int colon = client.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("introspection client must look like 'client-id:sha256-hex'");
+            }
+            secretDigests.put(client.substring(0, colon).trim(),
+                HexFormat.of().parseHex(client.substring(colon + 1).trim()));
+        }
+        log.info("{} introspection clients configured", secretDigests.size());
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) {
+        String clientId = authentication.getName();
+        byte[] expected = secretDigests.get(clientId);
+        Object secret = authentication.getCredentials();
+        if (expected == null || secret == null
+            || !MessageDigest.isEqual(expected, sha256(secret.toString()))) {
+            throw new BadCredentialsException("Unknown introspection client or wrong secret");
+        }
+        return UsernamePasswordAuthenticationToken.authenticated(clientId, null,
+            List.of(new SimpleGrantedAuthority("ROLE_" + ROLE)));
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+
+    private static byte[] sha256(String secret) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM ships SHA-256, so this can only happen on a broken runtime
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
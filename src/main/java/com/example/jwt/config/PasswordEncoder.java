@@ -1,21 +1,124 @@
 package com.example.jwt.config;
 
-import lombok.Setter;
+import com.example.jwt.service.AuthMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Component;
 
+/**
+ * The one bcrypt encoder of the application, used for registrations and by the authentication provider.
+ * The cost is fixed once at startup, either from configuration or by measuring which cost meets the
+ * target hash latency on this machine, and never changes afterwards, so the component is thread safe.
+ * Stored hashes with a different cost are reported through {@link #upgradeEncoding(String)} so that
+ * spring security re-hashes them after the next successful login.
+ */
 @Component
-@Setter
-public class PasswordEncoder {
+@Slf4j
+public class PasswordEncoder implements org.springframework.security.crypto.password.PasswordEncoder {
 
-    private BCryptPasswordEncoder encoder;
+    private static final int MIN_STRENGTH = 10;
 
-    public void setPasswordStrength(int strength) {
+    private static final int MAX_STRENGTH = 16;
+
+    private final PasswordHashingExecutor hashingExecutor;
+
+    private final AuthMetrics authMetrics;
+
+    private final BCryptPasswordEncoder encoder;
+
+    @Getter
+    private final int strength;
+
+    @Getter
+    private final long measuredHashMillis;
+
+    public PasswordEncoder(PasswordHashingExecutor hashingExecutor, AuthMetrics authMetrics, MeterRegistry meterRegistry,
+        @Value("${security.password-hashing.strength:0}") int configuredStrength,
+        @Value("${security.password-hashing.target-millis:250}") long targetMillis) {
+        this.hashingExecutor = hashingExecutor;
+        this.authMetrics = authMetrics;
+        this.strength = configuredStrength > 0 ? configuredStrength : calibrate(targetMillis);
         this.encoder = new BCryptPasswordEncoder(strength);
+        this.measuredHashMillis = timeHash(encoder);
+        log.info("bcrypt strength {} takes {} ms per hash on this machine", strength, measuredHashMillis);
+
+        Gauge.builder("security.password.hash.strength", this, PasswordEncoder::getStrength)
+            .description("bcrypt cost used for new password hashes")
+            .register(meterRegistry);
+        Gauge.builder("security.password.hash.millis", this, PasswordEncoder::getMeasuredHashMillis)
+            .description("time one bcrypt hash took at startup")
+            .baseUnit("milliseconds")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        long start = System.nanoTime();
+        try {
+            return hashingExecutor.call(() -> encoder.encode(rawPassword));
+        } finally {
+            authMetrics.recordPasswordHash("encode", start);
+        }
     }
 
     public String encode(String password) {
-        return encoder.encode(password);
+        return encode((CharSequence) password);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        long start = System.nanoTime();
+        try {
+            return hashingExecutor.call(() -> encoder.matches(rawPassword, encodedPassword));
+        } finally {
+            authMetrics.recordPasswordHash("matches", start);
+        }
+    }
+
+    /**
+     * True when the stored hash was made with another cost than the current one, in either direction.
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        // bcrypt hashes look like $2a$12$..., the two digits after the version are the cost
+        if (encodedPassword == null || encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(encodedPassword.substring(4, 6)) != strength;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Picks the highest cost whose hash time still fits in the target, each extra cost doubles the time.
+     */
+    private static int calibrate(long targetMillis) {
+        // the first hashes are slow because the code is not yet compiled, warm up with a cheap cost
+        timeHash(new BCryptPasswordEncoder(4));
+        int chosen = MIN_STRENGTH;
+        for (int candidate = MIN_STRENGTH; candidate <= MAX_STRENGTH; candidate++) {
+            long millis = timeHash(new BCryptPasswordEncoder(candidate));
+            if (millis > targetMillis) {
+                break;
+            }
+            chosen = candidate;
+            if (millis * 2 > targetMillis) {
+                // the next cost would take about twice as long, no need to measure it
+                break;
+            }
+        }
+        return chosen;
     }
 
+    private static long timeHash(BCryptPasswordEncoder encoder) {
+        long start = System.nanoTime();
+        encoder.encode("calibration-password");
+        return (System.nanoTime() - start) / 1_000_000;
+    }
 }
@@ -1,12 +1,18 @@
 package com.example.jwt.config;
 
 import com.example.jwt.filters.JwtFilter;
+import com.example.jwt.filters.RateLimitFilter;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
@@ -14,10 +20,13 @@ import org.springframework.security.config.annotation.method.configuration.Enabl
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+
+import java.util.List;
 
 @Configuration
 @EnableWebSecurity
@@ -35,6 +44,43 @@ public class SecurityConfig {
     @Autowired
     private JwtFilter jwtFilter;
 
+    @Autowired
+    private RateLimitFilter rateLimitFilter;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private UserDetailsPasswordService userDetailsPasswordService;
+
+    @Value("${jwt.introspection.clients:}")
+    private List<String> introspectionClients;
+
+    // actuator endpoints are served on their own port, -1 when they share the application port
+    @Value("${management.server.port:-1}")
+    private int managementPort;
+
+    /**
+     * POST /token/introspect is for other services, not users: they authenticate as one of the configured
+     * introspection clients with HTTP Basic, bearer tokens and user accounts aren't accepted here.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain introspectionSecurityFilterChain(HttpSecurity security) {
+        security.securityMatcher("/token/introspect");
+        security.csrf(csrf -> csrf.disable());
+        security.authorizeHttpRequests(
+            requests -> requests.dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
+                .anyRequest().hasRole(IntrospectionClientAuthenticationProvider.ROLE));
+        security.httpBasic(Customizer.withDefaults());
+        security.authenticationManager(
+            new ProviderManager(new IntrospectionClientAuthenticationProvider(introspectionClients)));
+        security.sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+        // limited per client, the controller charges one more permit for every further token of the batch
+        security.addFilterAfter(rateLimitFilter, BasicAuthenticationFilter.class);
+        return security.build();
+    }
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity security) {
 
@@ -42,10 +88,16 @@ public class SecurityConfig {
         // now create the customer order without the CSRF token and you will see the request is successful
         security.csrf(csrf -> csrf.disable());
 
-        // here we are telling spring that all the request should be authenticated
+        // here we are telling spring that all the request should be authenticated,
+        // except the async and error dispatches that finish a request which was already authorized,
+        // otherwise every 4xx/5xx raised by a controller would reach the client as 403
         security.authorizeHttpRequests(
-            requests -> requests.requestMatchers("/user/login", "/user/register", "/user/refresh-token")
+            requests -> requests.dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
+                .requestMatchers("/user/login", "/user/register", "/user/refresh-token",
+                    "/user/logout")
                 .permitAll()
+                // health checks and prometheus scrapes come without a token, but only on the management port
+                .requestMatchers(this::isUnauthenticatedManagementRequest).permitAll()
                 .anyRequest().authenticated());
 
         // here we are telling spring to use the basic authentication for the authentication process
@@ -65,10 +117,21 @@ public class SecurityConfig {
         // here we are telling spring to use the jwt filter before the username password authentication filter
         security.addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class);
 
+        // same position, added after it, so it runs right after the jwt filter: authenticated requests
+        // are limited per user and the rest per client IP. Rejected bearer tokens are charged to the
+        // client IP by the jwt filter itself, before it verifies any more of them.
+        security.addFilterBefore(rateLimitFilter, UsernamePasswordAuthenticationFilter.class);
+
         return security.build();
     }
 
 
+    private boolean isUnauthenticatedManagementRequest(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return managementPort > 0 && request.getLocalPort() == managementPort
+            && (path.equals("/actuator/health") || path.equals("/actuator/prometheus"));
+    }
+
     @Bean
     public AuthenticationProvider authenticationProvider() {
         DaoAuthenticationProvider authenticationProvider = new DaoAuthenticationProvider(userDetailsService);
@@ -78,7 +141,11 @@ public class SecurityConfig {
 //        which is not recommended for production use.
 //        authenticationProvider.setPasswordEncoder(NoOpPasswordEncoder.getInstance());
 
-        authenticationProvider.setPasswordEncoder(new BCryptPasswordEncoder(12));
+        // bcrypt checks run on the bounded hashing pool so a login burst can't starve the other requests
+        authenticationProvider.setPasswordEncoder(passwordEncoder);
+
+        // after a successful login hashes made with an outdated cost are re-hashed and stored again
+        authenticationProvider.setUserDetailsPasswordService(userDetailsPasswordService);
         return authenticationProvider;
     }
 
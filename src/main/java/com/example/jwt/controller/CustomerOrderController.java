@@ -1,33 +1,146 @@
 package com.example.jwt.controller;
 
+import com.example.jwt.model.BatchResult;
 import com.example.jwt.model.CustomerOrder;
+import com.example.jwt.model.CustomerOrderPage;
+import com.example.jwt.model.ExportFormat;
+import com.example.jwt.model.OrderSearchPage;
+import com.example.jwt.service.CustomerOrderExportService;
 import com.example.jwt.service.CustomerOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.MappingIterator;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.SequenceWriter;
+import tools.jackson.dataformat.smile.SmileMapper;
+import tools.jackson.dataformat.smile.SmileWriteFeature;
 
-import java.util.List;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 
 @RestController
 @RequestMapping("orders")
 public class CustomerOrderController {
 
+    private static final String SMILE = "application/x-jackson-smile";
+
+    // shared back references make repeated property names and short values cost a byte or two
+    private static final SmileMapper SMILE_MAPPER = SmileMapper.builder()
+        .enable(SmileWriteFeature.CHECK_SHARED_STRING_VALUES)
+        .build();
+
+    // lets clients keep the listing but makes them revalidate it, spring security would send no-store otherwise
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     private final CustomerOrderService customerOrderService;
 
+    private final CustomerOrderExportService customerOrderExportService;
+
+    private final ObjectMapper objectMapper;
+
     @Autowired
-    public CustomerOrderController(CustomerOrderService customerOrderService) {
+    public CustomerOrderController(CustomerOrderService customerOrderService,
+        CustomerOrderExportService customerOrderExportService, ObjectMapper objectMapper) {
         this.customerOrderService = customerOrderService;
+        this.customerOrderExportService = customerOrderExportService;
+        this.objectMapper = objectMapper;
     }
 
+    /**
+     * Polling clients send the ETag back in If-None-Match and get a 304 after a single primary key
+     * lookup as long as no order was written since, on any node.
+     */
     @GetMapping
     @PreAuthorize("hasAnyRole('USER','SUPER_ADMIN')")
-    public List<CustomerOrder> getAllCustomerOrders() {
-        return customerOrderService.getAllCustomerOrders();
+    public ResponseEntity<CustomerOrderPage> getAllCustomerOrders(@RequestParam(required = false) Integer after,
+        @RequestParam(defaultValue = "100") int size, WebRequest request) {
+        String version = weakETag(customerOrderService.getCustomerOrdersVersion());
+        if (request.checkNotModified(version)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(version).cacheControl(REVALIDATE)
+            .body(customerOrderService.getCustomerOrders(after, size));
+    }
+
+    /**
+     * Streams every order as newline delimited json, memory use stays flat no matter how big the table is.
+     */
+    @GetMapping(value = "stream", produces = "application/x-ndjson")
+    @PreAuthorize("hasAnyRole('USER','SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> streamAllCustomerOrders() {
+        StreamingResponseBody body = outputStream -> {
+            OutputStream out = new BufferedOutputStream(outputStream);
+            try {
+                customerOrderService.streamAllCustomerOrders(order -> writeLine(out, order));
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            out.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * The same stream as a sequence of Smile values, the binary form of json. Property names that repeat
+     * in every order are written once and referenced afterwards, which makes it much smaller than ndjson
+     * and cheaper to write.
+     */
+    @GetMapping(value = "stream", produces = SMILE)
+    @PreAuthorize("hasAnyRole('USER','SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> streamAllCustomerOrdersAsSmile() {
+        StreamingResponseBody body = outputStream -> {
+            // the servlet container closes the response stream itself
+            try (SequenceWriter orders = SMILE_MAPPER.writerFor(CustomerOrder.class)
+                .writeValues(StreamUtils.nonClosing(new BufferedOutputStream(outputStream)))) {
+                customerOrderService.streamAllCustomerOrders(orders::write);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(SMILE)).body(body);
+    }
+
+    /**
+     * Every order, or those written at or after {@code modifiedSince}, as csv or ndjson in id order, streamed
+     * straight from the database for reconciliation jobs. With {@code gzip=true} the file itself is gzipped.
+     */
+    @GetMapping("export")
+    @PreAuthorize("hasAnyRole('ADMIN','SUPER_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportCustomerOrders(@RequestParam(defaultValue = "csv") String format,
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant modifiedSince,
+        @RequestParam(defaultValue = "false") boolean gzip) {
+        ExportFormat exportFormat = ExportFormat.fromName(format);
+        if (exportFormat == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown export format: " + format);
+        }
+        StreamingResponseBody body = outputStream ->
+            customerOrderExportService.export(exportFormat, modifiedSince, gzip, outputStream);
+        String fileName = "orders." + exportFormat.getExtension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(gzip ? "application/gzip" : exportFormat.getContentType()))
+            .header(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(fileName).build().toString())
+            .body(body);
     }
 
     @GetMapping("orderId")
@@ -36,14 +149,63 @@ public class CustomerOrderController {
         return customerOrderService.findByOrderId(orderId);
     }
 
+    /**
+     * Full text search over product name and delivery address, e.g. {@code q=wireless head} also finds
+     * "Wireless headphones". Paginated like the listings, pass {@code nextCursor} as {@code after}.
+     */
+    @GetMapping("search")
+    @PreAuthorize("hasAnyRole('USER','SUPER_ADMIN')")
+    public OrderSearchPage searchCustomerOrders(@RequestParam String q, @RequestParam(required = false) String after,
+        @RequestParam(defaultValue = "20") int size) {
+        return customerOrderService.searchCustomerOrders(q, after, size);
+    }
+
     @PostMapping
     @PreAuthorize("hasAnyRole('ADMIN','SUPER_ADMIN')")
     public CustomerOrder createCustomerOrder(@RequestBody CustomerOrder customerOrder) {
         return customerOrderService.addCustomerOrder(customerOrder);
     }
 
+    private void writeLine(OutputStream out, CustomerOrder order) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(order));
+            out.write('\n');
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Bulk upload of orders, either as one json array or as newline delimited json.
+     * Answers with the outcome of every item, duplicates of an existing orderId are reported and skipped.
+     */
+    @PostMapping(value = "batch", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    @PreAuthorize("hasAnyRole('ADMIN','SUPER_ADMIN')")
+    public BatchResult createCustomerOrders(InputStream body) {
+        // reads one order at a time, a top level array is unwrapped by the iterator
+        try (MappingIterator<CustomerOrder> orders = objectMapper.readerFor(CustomerOrder.class).readValues(body)) {
+            return customerOrderService.addCustomerOrders(orders);
+        } catch (JacksonException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Malformed order in upload, batches before it were stored: " + ex.getOriginalMessage());
+        }
+    }
+
     @GetMapping("my-orders")
-    public List<CustomerOrder> getAllCustomerOrdersBasedOnUserNameFromLogin() {
-        return customerOrderService.getAllCustomerOrdersBasedOnUserNameFromLogin();
+    public ResponseEntity<CustomerOrderPage> getAllCustomerOrdersBasedOnUserNameFromLogin(
+        @RequestParam(required = false) Integer after, @RequestParam(defaultValue = "100") int size,
+        WebRequest request) {
+        String version = weakETag(customerOrderService.getCustomerOrdersOfLoggedInUserVersion());
+        if (version != null && request.checkNotModified(version)) {
+            return null;
+        }
+        // the same url answers differently per user
+        return ResponseEntity.ok().eTag(version).cacheControl(REVALIDATE).varyBy(HttpHeaders.AUTHORIZATION)
+            .body(customerOrderService.getCustomerOrdersOfLoggedInUser(after, size));
+    }
+
+    // tomcat doesn't compress responses with a strong ETag, the versions don't identify exact bytes anyway
+    private static String weakETag(String version) {
+        return version == null ? null : "W/\"" + version + "\"";
     }
 }
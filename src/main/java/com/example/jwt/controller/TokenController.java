@@ -0,0 +1,54 @@
+package com.example.jwt.controller;
+
+import com.example.jwt.filters.RateLimiter;
+import com.example.jwt.model.TokenIntrospectionRequest;
+import com.example.jwt.model.TokenIntrospectionResponse;
+import com.example.jwt.service.TokenIntrospectionService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("token")
+public class TokenController {
+
+    private final TokenIntrospectionService tokenIntrospectionService;
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * Validity, subject, roles and expiry of many tokens in one round trip, for services that used to
+     * call "/" once per user token. Nothing is stored on the server, no session is created.
+     * Only introspection clients get here, see SecurityConfig.
+     */
+    @PostMapping("introspect")
+    public ResponseEntity<TokenIntrospectionResponse> introspect(@RequestBody TokenIntrospectionRequest request,
+        HttpServletRequest httpRequest) {
+        List<String> tokens = request.getTokens();
+        if (tokens == null || tokens.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "tokens must not be empty");
+        }
+        if (tokens.size() > tokenIntrospectionService.getMaxBatchSize()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "at most " + tokenIntrospectionService.getMaxBatchSize() + " tokens per request");
+        }
+        // every token costs as much as a request, the rate limit filter already took the permit of the first
+        long waitNanos = rateLimiter.acquire(httpRequest, RateLimiter.clientKey(httpRequest), tokens.size() - 1);
+        if (waitNanos > 0) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RateLimiter.retryAfterSeconds(waitNanos)))
+                .build();
+        }
+        return ResponseEntity.ok(new TokenIntrospectionResponse(tokenIntrospectionService.introspect(tokens)));
+    }
+}
@@ -1,22 +1,35 @@
 package com.example.jwt.controller;
 
+import com.example.jwt.model.AuditEvent;
 import com.example.jwt.model.LoginResponse;
 import com.example.jwt.model.RefreshTokenRequest;
+import com.example.jwt.model.TokenVerification;
 import com.example.jwt.model.User;
+import com.example.jwt.model.UserPage;
+import com.example.jwt.model.VerifiedToken;
+import com.example.jwt.service.AuditService;
 import com.example.jwt.service.JwtService;
+import com.example.jwt.service.TokenRevocationService;
 import com.example.jwt.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.util.List;
+import java.util.UUID;
 
 @RestController
 @RequiredArgsConstructor
@@ -31,12 +44,30 @@ public class UserController {
 
     private final JwtService jwtService;
 
+    private final TokenRevocationService tokenRevocationService;
+
+    private final AuditService auditService;
+
     @PostMapping("login")
     public LoginResponse loginUser(@RequestBody User user) {
-        Authentication authentication = authenticationManager.authenticate(
-            new UsernamePasswordAuthenticationToken(user.getUserName(), user.getPassword()));
+        Authentication authentication;
+        try {
+            authentication = authenticationManager.authenticate(
+                new UsernamePasswordAuthenticationToken(user.getUserName(), user.getPassword()));
+        } catch (InternalAuthenticationServiceException ex) {
+            // the login couldn't be checked (overload, database down), that is not a failed login
+            throw ex;
+        } catch (AuthenticationException ex) {
+            auditService.record(AuditEvent.Type.LOGIN_FAILED, user.getUserName(), ex.getClass().getSimpleName());
+            throw ex;
+        }
         if (authentication.isAuthenticated()) {
-            return jwtService.generateTokens(user.getUserName());
+            // the family id is audited so the refreshes of this login can be traced back to it
+            String familyId = UUID.randomUUID().toString();
+            LoginResponse loginResponse = jwtService.generateTokens(user.getUserName(),
+                authentication.getAuthorities(), familyId);
+            auditService.record(AuditEvent.Type.LOGIN, user.getUserName(), familyId);
+            return loginResponse;
         } else {
             return new LoginResponse(null,null,0);
         }
@@ -48,21 +79,52 @@ public class UserController {
     }
 
     @GetMapping
-    public List<User> getAllUsers() {
-        return userService.getAllUsers();
+    public UserPage getAllUsers(@RequestParam(required = false) Integer after,
+        @RequestParam(defaultValue = "100") int size) {
+        return userService.getUsers(after, size);
     }
 
     @PostMapping("refresh-token")
     public LoginResponse validateRefreshTokenAndRegenerateAccessToken(
         @RequestBody RefreshTokenRequest refreshTokenRequest) {
-        String refreshToken = refreshTokenRequest.getRefreshToken();
-        if (jwtService.validateRefreshToken(refreshToken,
-            userService.loadUserByUsername(jwtService.extractUserName(refreshToken)))) {
-            String userName = jwtService.extractUserName(refreshToken);
-            return jwtService.generateTokens(userName, refreshToken);
+        TokenVerification verification = jwtService.tryVerify(refreshTokenRequest.getRefreshToken());
+        if (!verification.isValid()) {
+            log.error("refresh token rejected: {}", verification.getOutcome());
+            return new LoginResponse(null, null, 0);
+        }
+        VerifiedToken verifiedToken = verification.getToken();
+        if (!verifiedToken.isRefreshToken()) {
+            log.error("an access token was sent to the refresh endpoint");
+            return new LoginResponse(null, null, 0);
+        }
+        // every refresh token works exactly once, presenting a used one again revokes the whole login
+        if (!tokenRevocationService.rotate(verifiedToken)) {
+            log.error("refresh token was already used or revoked");
+            return new LoginResponse(null, null, 0);
+        }
+        UserDetails userDetails = userService.loadUserByUsername(verifiedToken.getSubject());
+        if (jwtService.validateRefreshToken(verifiedToken, userDetails)) {
+            LoginResponse loginResponse = jwtService.generateTokens(verifiedToken.getSubject(),
+                userDetails.getAuthorities(), verifiedToken.getFamilyId());
+            auditService.record(AuditEvent.Type.REFRESH, verifiedToken.getSubject(), verifiedToken.getFamilyId());
+            return loginResponse;
         } else {
             log.error("refresh token itself is not valid");
             return new LoginResponse(null, null, 0);
         }
     }
+
+    /**
+     * Ends the login the refresh token belongs to, its access and refresh tokens stop working on every node.
+     */
+    @PostMapping("logout")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void logoutUser(@RequestBody RefreshTokenRequest refreshTokenRequest) {
+        TokenVerification verification = jwtService.tryVerify(refreshTokenRequest.getRefreshToken());
+        if (!verification.isValid()) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, verification.getOutcome().name());
+        }
+        VerifiedToken verifiedToken = verification.getToken();
+        tokenRevocationService.revokeFamily(verifiedToken.getFamilyId(), verifiedToken.getSubject());
+    }
 }
@@ -1,7 +1,15 @@
 package com.example.jwt.filters;
 
+import com.example.jwt.model.TokenVerification;
+import com.example.jwt.model.User;
+import com.example.jwt.model.UserPrincipal;
+import com.example.jwt.model.VerifiedToken;
+import com.example.jwt.service.AuthMetrics;
 import com.example.jwt.service.JwtService;
+import com.example.jwt.service.TokenRevocationService;
 import com.example.jwt.service.UserService;
+import com.example.jwt.service.VerifiedTokenCache;
+import com.example.jwt.service.VerifiedTokenCache.CachedAuthentication;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -10,13 +18,17 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 
 @Configuration
 @RequiredArgsConstructor
@@ -28,30 +40,115 @@ public class JwtFilter  extends OncePerRequestFilter {
 
     private final UserService userService;
 
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    private final TokenRevocationService tokenRevocationService;
+
+    private final AuthMetrics authMetrics;
+
+    private final RateLimiter rateLimiter;
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
         FilterChain filterChain) throws ServletException, IOException {
+        long start = System.nanoTime();
         String authorizationHeader = request.getHeader("Authorization");
-        String token = null;
-        String userName = null;
+        VerifiedToken verifiedToken = null;
 
-        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            token = authorizationHeader.substring(7);
-            userName = jwtService.extractUserName(token);
-        }
+        if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")
+            && SecurityContextHolder.getContext().getAuthentication() == null) {
+            String token = authorizationHeader.substring(7);
+            authMetrics.recordStage(AuthMetrics.STAGE_EXTRACT, start);
+
+            // a token we already verified earlier skips parsing, the signature check and the user lookup
+            long cacheStart = System.nanoTime();
+            CachedAuthentication cached = verifiedTokenCache.get(token);
+            authMetrics.recordStage(AuthMetrics.STAGE_TOKEN_CACHE, cacheStart);
+            if (cached != null) {
+                if (tokenRevocationService.isRevoked(cached.getTokenId(), cached.getFamilyId())) {
+                    authMetrics.recordOutcome("REVOKED");
+                } else {
+                    authMetrics.recordOutcome("CACHED");
+                    authenticate(request, cached.getPrincipal(), cached.getAuthorities());
+                }
+                filterChain.doFilter(request, response);
+                return;
+            }
+
+            // every rejected token costs the client IP a permit, an IP without permits left isn't verified at all
+            long waitNanos = rateLimiter.waitNanos(request, RateLimiter.ipKey(request));
+            if (waitNanos > 0) {
+                authMetrics.recordOutcome("RATE_LIMITED");
+                RateLimiter.reject(response, waitNanos);
+                return;
+            }
 
-        if (userName != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            // the token is parsed and its signature checked only once for the whole request
+            long verifyStart = System.nanoTime();
+            TokenVerification verification = jwtService.tryVerify(token);
+            authMetrics.recordStage(AuthMetrics.STAGE_VERIFY, verifyStart);
+            if (!verification.isValid()) {
+                reject(request, response, verification.getOutcome().name());
+                return;
+            }
+            verifiedToken = verification.getToken();
+        }
 
-            UserDetails userDetails = userService.loadUserByUsername(userName);
+        // refresh tokens are only good for /user/refresh-token, and revoked tokens for nothing
+        if (verifiedToken != null && verifiedToken.getSubject() != null) {
+            if (verifiedToken.isRefreshToken()) {
+                authMetrics.recordOutcome("REFRESH_TOKEN");
+            } else if (tokenRevocationService.isRevoked(verifiedToken.getId(), verifiedToken.getFamilyId())) {
+                authMetrics.recordOutcome("REVOKED");
+            } else {
+                UserDetails userDetails;
+                long loadStart = System.nanoTime();
+                try {
+                    userDetails = loadPrincipal(verifiedToken);
+                } catch (UsernameNotFoundException ex) {
+                    // the user was deleted after the token was issued
+                    reject(request, response, "UNKNOWN_USER");
+                    return;
+                } finally {
+                    authMetrics.recordStage(AuthMetrics.STAGE_LOAD_USER, loadStart);
+                }
 
-            if (jwtService.validateToken(token, userDetails)) {
-                UsernamePasswordAuthenticationToken authToken =
-                    new UsernamePasswordAuthenticationToken(userDetails, null,
-                        userDetails.getAuthorities());
-                authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(authToken);
+                if (jwtService.validateToken(verifiedToken, userDetails)) {
+                    authMetrics.recordOutcome("VALID");
+                    verifiedTokenCache.put(verifiedToken, userDetails);
+                    authenticate(request, userDetails, userDetails.getAuthorities());
+                }
             }
         }
         filterChain.doFilter(request, response);
     }
+
+    /**
+     * In self-contained mode the principal is rebuilt from the roles inside the token,
+     * otherwise (or for older tokens without roles) the user is looked up through the UserService.
+     */
+    private UserDetails loadPrincipal(VerifiedToken verifiedToken) {
+        List<String> roles = verifiedToken.getRoles();
+        if (jwtService.isSelfContainedTokens() && roles != null) {
+            return new UserPrincipal(User.builder().userName(verifiedToken.getSubject()).roles(roles).build());
+        }
+        return userService.loadUserByUsername(verifiedToken.getSubject());
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response, String reason) {
+        authMetrics.recordOutcome(reason);
+        rateLimiter.acquire(request, RateLimiter.ipKey(request), 1);
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        response.setHeader("WWW-Authenticate", "Bearer error=\"invalid_token\", error_description=\"" + reason + "\"");
+    }
+
+    private void authenticate(HttpServletRequest request, UserDetails userDetails,
+        Collection<? extends GrantedAuthority> authorities) {
+        long start = System.nanoTime();
+        UsernamePasswordAuthenticationToken authToken =
+            new UsernamePasswordAuthenticationToken(userDetails, null, authorities);
+        authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        SecurityContextHolder.getContext().setAuthentication(authToken);
+        authMetrics.recordStage(AuthMetrics.STAGE_SECURITY_CONTEXT, start);
+    }
 }
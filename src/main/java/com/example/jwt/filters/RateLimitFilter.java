@@ -0,0 +1,34 @@
+package com.example.jwt.filters;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Runs right after the JwtFilter and turns clients away with 429 before a request reaches bcrypt or the
+ * database. Authenticated requests are counted per user, the others (login, register, refresh) per client
+ * IP, see {@link RateLimiter}.
+ */
+@Component
+@RequiredArgsConstructor
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimiter rateLimiter;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+        FilterChain filterChain) throws ServletException, IOException {
+        long waitNanos = rateLimiter.acquire(request, RateLimiter.clientKey(request), 1);
+        if (waitNanos > 0) {
+            RateLimiter.reject(response, waitNanos);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+}
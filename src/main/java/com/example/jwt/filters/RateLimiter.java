@@ -0,0 +1,203 @@
+package com.example.jwt.filters;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets of rate-limit.rules. A request is counted against the first rule its method and path match,
+ * in the bucket of the authenticated user, or of the client IP when there is no user. Buckets live in a
+ * bounded Caffeine map per rule and are evicted once idle for the rule's period, by then they would have
+ * refilled anyway.
+ * <p>
+ * The {@link RateLimitFilter} charges every request. The JwtFilter charges the client IP for every bearer
+ * token it rejects and turns an IP with an empty bucket away before verifying its next token.
+ */
+@Component
+@Slf4j
+public class RateLimiter {
+
+    private final boolean enabled;
+
+    private final List<Rule> rules;
+
+    public RateLimiter(MeterRegistry meterRegistry,
+        @Value("${rate-limit.enabled:true}") boolean enabled,
+        @Value("${rate-limit.rules:}") List<String> rules,
+        @Value("${rate-limit.max-clients:100000}") long maxClients) {
+        this.enabled = enabled;
+        this.rules = new ArrayList<>();
+        for (String rule : rules) {
+            if (!rule.isBlank()) {
+                this.rules.add(Rule.parse(rule.trim(), maxClients, meterRegistry));
+            }
+        }
+        Gauge.builder("rate-limit.clients", this, RateLimiter::trackedClients)
+            .description("clients with a token bucket across all rules")
+            .register(meterRegistry);
+        log.info("rate limiting {} with rules {}", enabled ? "enabled" : "disabled", rules);
+    }
+
+    /**
+     * Takes {@code permits} tokens from the client's bucket of the rule matching the request.
+     *
+     * @return 0 when the request may pass, otherwise the nanoseconds until it would
+     */
+    public long acquire(HttpServletRequest request, String clientKey, int permits) {
+        Rule rule = enabled ? matchingRule(request) : null;
+        if (rule == null || permits <= 0) {
+            return 0;
+        }
+        long waitNanos = rule.tryAcquire(clientKey, permits);
+        if (waitNanos > 0) {
+            rule.rejected.increment();
+        }
+        return waitNanos;
+    }
+
+    /**
+     * How long the client has to wait for its next token, without taking one.
+     */
+    public long waitNanos(HttpServletRequest request, String clientKey) {
+        Rule rule = enabled ? matchingRule(request) : null;
+        if (rule == null) {
+            return 0;
+        }
+        long waitNanos = rule.waitNanos(clientKey);
+        if (waitNanos > 0) {
+            rule.rejected.increment();
+        }
+        return waitNanos;
+    }
+
+    private Rule matchingRule(HttpServletRequest request) {
+        for (Rule rule : rules) {
+            if (rule.matches(request)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The authenticated user, or the client IP before the JwtFilter put a user into the context.
+     */
+    public static String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+            && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return "user:" + authentication.getName();
+        }
+        return ipKey(request);
+    }
+
+    public static String ipKey(HttpServletRequest request) {
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    public static void reject(HttpServletResponse response, long waitNanos) {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds(waitNanos)));
+    }
+
+    // whole seconds, rounded up
+    public static long retryAfterSeconds(long waitNanos) {
+        return TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1;
+    }
+
+    private long trackedClients() {
+        return rules.stream().mapToLong(rule -> rule.buckets.estimatedSize()).sum();
+    }
+
+    /**
+     * "[METHOD ]pattern=permits/period", e.g. "POST /user/login=20/PT1M": bursts of up to 20 requests,
+     * refilled at 20 per minute.
+     */
+    static final class Rule {
+
+        private final RequestMatcher matcher;
+
+        private final long intervalNanos;
+
+        private final long toleranceNanos;
+
+        private final Cache<String, TokenBucket> buckets;
+
+        private final Counter rejected;
+
+        private Rule(String name, RequestMatcher matcher, int permits, Duration period, long maxClients,
+            MeterRegistry meterRegistry) {
+            this.matcher = matcher;
+            this.intervalNanos = period.toNanos() / permits;
+            this.toleranceNanos = (permits - 1) * intervalNanos;
+            this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(period)
+                .build();
+            this.rejected = Counter.builder("rate-limit.rejected")
+                .description("requests answered with 429")
+                .tag("rule", name)
+                .register(meterRegistry);
+        }
+
+        static Rule parse(String rule, long maxClients, MeterRegistry meterRegistry) {
+            int equals = rule.lastIndexOf('=');
+            int slash = rule.indexOf('/', equals);
+            if (equals < 0 || slash < 0) {
+                throw new IllegalArgumentException("rate limit rule must look like '[METHOD ]pattern=permits/period': "
+                    + rule);
+            }
+            String route = rule.substring(0, equals).trim();
+            int permits = Integer.parseInt(rule.substring(equals + 1, slash).trim());
+            Duration period = Duration.parse(rule.substring(slash + 1).trim());
+            if (permits < 1 || period.isNegative() || period.isZero()) {
+                throw new IllegalArgumentException("rate limit rule needs at least 1 permit per period: " + rule);
+            }
+            // one token per 0 ns would be no limit at all
+            if (period.toNanos() / permits == 0) {
+                throw new IllegalArgumentException("rate limit rule has more permits than nanoseconds in its period: "
+                    + rule);
+            }
+            int space = route.indexOf(' ');
+            PathPatternRequestMatcher.Builder builder = PathPatternRequestMatcher.withDefaults();
+            RequestMatcher matcher = space < 0 ? builder.matcher(route)
+                : builder.matcher(HttpMethod.valueOf(route.substring(0, space)), route.substring(space + 1).trim());
+            return new Rule(route, matcher, permits, period, maxClients, meterRegistry);
+        }
+
+        boolean matches(HttpServletRequest request) {
+            return matcher.matches(request);
+        }
+
+        long tryAcquire(String clientKey, int permits) {
+            long now = System.nanoTime();
+            return buckets.get(clientKey, key -> new TokenBucket(now))
+                .tryAcquire(now, intervalNanos, toleranceNanos, permits);
+        }
+
+        long waitNanos(String clientKey) {
+            TokenBucket bucket = buckets.getIfPresent(clientKey);
+            return bucket == null ? 0 : bucket.waitNanos(System.nanoTime(), toleranceNanos);
+        }
+    }
+}
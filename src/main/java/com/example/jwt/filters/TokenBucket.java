@@ -0,0 +1,53 @@
+package com.example.jwt.filters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket of one client, kept as a single "theoretical arrival time" (the generic cell rate algorithm)
+ * so taking tokens is one compare-and-set and needs no lock. A bucket holding {@code capacity} tokens that
+ * refills one token every {@code intervalNanos} lets {@code n} tokens through while the arrival time is at
+ * most {@code (capacity - n) * intervalNanos} ahead of now, the tolerance passed in is
+ * {@code (capacity - 1) * intervalNanos}.
+ */
+final class TokenBucket {
+
+    private final AtomicLong theoreticalArrival;
+
+    TokenBucket(long now) {
+        this.theoreticalArrival = new AtomicLong(now);
+    }
+
+    /**
+     * Takes {@code permits} tokens, or none when there aren't enough.
+     *
+     * @return 0 when the request may pass, otherwise the nanoseconds until enough tokens are available
+     */
+    long tryAcquire(long now, long intervalNanos, long toleranceNanos, int permits) {
+        long cost = permits * intervalNanos;
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long wait = waitNanos(arrival, now, cost - intervalNanos, toleranceNanos);
+            if (wait > 0) {
+                return wait;
+            }
+            // nanoTime values may be negative, compare differences only
+            long start = arrival - now > 0 ? arrival : now;
+            if (theoreticalArrival.compareAndSet(arrival, start + cost)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #tryAcquire} for a single token, without taking it.
+     */
+    long waitNanos(long now, long toleranceNanos) {
+        return waitNanos(theoreticalArrival.get(), now, 0, toleranceNanos);
+    }
+
+    private static long waitNanos(long arrival, long now, long extraCost, long toleranceNanos) {
+        long ahead = arrival - now > 0 ? arrival - now : 0;
+        long excess = ahead + extraCost - toleranceNanos;
+        return excess > 0 ? excess : 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.jwt.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One row of the compliance audit trail. Events are only ever inserted, in batches by the AuditService,
+ * the entity exists so hibernate keeps the audit_events table in the schema.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "audit_events", indexes = @Index(name = "idx_audit_events_occurred_at", columnList = "occurredAt"))
+public class AuditEvent {
+
+    public enum Type {
+        LOGIN,
+        LOGIN_FAILED,
+        // a refresh token was rotated into a new token pair
+        REFRESH,
+        ORDER_CREATED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Type type;
+
+    // who did it: the user logging in or refreshing, the logged in user creating orders
+    private String userName;
+
+    // what it was done to: the token family of logins and refreshes, the orderId of created orders
+    private String detail;
+
+    @Column(nullable = false)
+    private Instant occurredAt;
+}
@@ -0,0 +1,30 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BatchItemResult {
+
+    public enum Status {
+        CREATED,
+        // an order with the same orderId already exists, either stored earlier or earlier in the same upload
+        DUPLICATE,
+        // the item has no orderId, or the database refused it, e.g. a value is longer than its column
+        REJECTED,
+        // the database failed for a reason that isn't the item's, uploading it again may work
+        FAILED
+    }
+
+    // position of the item in the uploaded array or stream
+    private int index;
+
+    private String orderId;
+
+    private Status status;
+}
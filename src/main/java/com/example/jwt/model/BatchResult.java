@@ -0,0 +1,25 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BatchResult {
+
+    private int created;
+
+    private int duplicates;
+
+    private int rejected;
+
+    private int failed;
+
+    private List<BatchItemResult> items;
+}
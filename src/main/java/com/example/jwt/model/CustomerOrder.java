@@ -1,20 +1,32 @@
 package com.example.jwt.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+import java.util.Locale;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
 @Entity(name = "customer_orders")
+// (customer_key, id) serves the my-orders lookup and its keyset pagination from one index range
+@Table(indexes = {
+    @Index(name = "idx_customer_orders_customer_key_id", columnList = "customer_key, id"),
+    @Index(name = "idx_customer_orders_updated_at", columnList = "updated_at")})
 public class CustomerOrder {
 
     @Id
@@ -25,4 +37,32 @@ public class CustomerOrder {
     private String productName;
     private String customerName;
     private String deliveryAddress;
+
+    /**
+     * customerName trimmed and lower cased, filled in on every write so lookups don't depend on
+     * how the name was typed. Rows written before this column existed are filled by
+     * db/backfill-customer-key.sql at startup.
+     */
+    @JsonIgnore
+    @Column(name = "customer_key")
+    private String customerKey;
+
+    /**
+     * Time of the last write, the export's modified-since filter reads it. Rows written before this
+     * column existed get the time of the first start with it from db/backfill-updated-at.sql.
+     */
+    @JsonIgnore
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    void fillDerivedColumns() {
+        this.customerKey = normalizeCustomerName(customerName);
+        this.updatedAt = Instant.now();
+    }
+
+    public static String normalizeCustomerName(String customerName) {
+        return customerName == null ? null : customerName.trim().toLowerCase(Locale.ROOT);
+    }
 }
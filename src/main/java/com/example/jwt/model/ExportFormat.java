@@ -0,0 +1,43 @@
+package com.example.jwt.model;
+
+import java.util.Locale;
+
+/**
+ * Formats of GET /orders/export. Both carry the same columns: id, orderId, productName, customerName,
+ * deliveryAddress and updatedAt (UTC, microseconds).
+ */
+public enum ExportFormat {
+
+    CSV("text/csv", "csv"),
+
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final String contentType;
+
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the format with the given name in any case, or null if there is none
+     */
+    public static ExportFormat fromName(String name) {
+        for (ExportFormat format : values()) {
+            if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of search results, best match first. Pass {@code nextCursor} as {@code after} to get the
+ * next page, it is null on the last page.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class OrderSearchPage {
+
+    private List<CustomerOrder> orders;
+
+    private String nextCursor;
+}
@@ -0,0 +1,46 @@
+package com.example.jwt.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * Version of the orders of one bucket of customers, the bucket being the customer key's hash.
+ * Versions are taken from a sequence, so the highest one changes with every write. See OrderChangeCounter.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "order_versions", indexes = @Index(name = "order_versions_version_idx", columnList = "version"))
+public class OrderVersion implements Persistable<Integer> {
+
+    @Id
+    private Integer bucket;
+
+    @Column(nullable = false)
+    private long version;
+
+    @Override
+    public Integer getId() {
+        return bucket;
+    }
+
+    /**
+     * The rows are only inserted once at startup and otherwise updated with a query, never merged.
+     */
+    @Override
+    @Transient
+    public boolean isNew() {
+        return true;
+    }
+}
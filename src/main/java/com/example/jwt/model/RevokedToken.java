@@ -0,0 +1,65 @@
+package com.example.jwt.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * A revoked token id (jti) or a whole revoked token family. Rows are only needed until
+ * {@code expiresAt}, after that every token they could match has expired by itself.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(name = "revoked_tokens", indexes = {
+    @Index(name = "idx_revoked_tokens_revoked_at", columnList = "revokedAt"),
+    @Index(name = "idx_revoked_tokens_expires_at", columnList = "expiresAt")})
+public class RevokedToken implements Persistable<String> {
+
+    public enum Kind {
+        // a single refresh token that was rotated
+        TOKEN,
+        // every token of a login, after logout or when a rotated refresh token was used again
+        FAMILY
+    }
+
+    // the jti or the family id, depending on kind
+    @Id
+    private String id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Kind kind;
+
+    private String userName;
+
+    @Column(nullable = false)
+    private Instant revokedAt;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+
+    /**
+     * Revocations are only ever inserted, so save() must persist instead of merging. That way a second
+     * revocation of the same id fails on the primary key, which is how token reuse is detected.
+     */
+    @Override
+    @Transient
+    public boolean isNew() {
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * What a downstream service needs to know about one token. {@code active} is only true for a valid,
+ * unrevoked token of an existing user, {@code outcome} says why it isn't (EXPIRED, BAD_SIGNATURE, REVOKED, ...).
+ * The other fields are only set for tokens whose signature checked out.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class TokenIntrospection {
+
+    private boolean active;
+
+    private String outcome;
+
+    private String subject;
+
+    // access or refresh
+    private String type;
+
+    // without the ROLE_ prefix, like the roles claim of a self-contained token
+    private List<String> roles;
+
+    private Instant expiresAt;
+}
@@ -0,0 +1,20 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One result per requested token, in the order the tokens were sent.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class TokenIntrospectionResponse {
+
+    private List<TokenIntrospection> results;
+}
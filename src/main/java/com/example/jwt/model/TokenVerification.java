@@ -0,0 +1,40 @@
+package com.example.jwt.model;
+
+import lombok.Value;
+
+/**
+ * Outcome of checking a bearer token, returned instead of throwing so callers can reject bad tokens cheaply.
+ * {@code token} is only set when the outcome is {@link Outcome#VALID}.
+ */
+@Value
+public class TokenVerification {
+
+    public enum Outcome {
+        VALID,
+        // not three base64url segments, or the header/payload can't be read
+        MALFORMED,
+        TOO_LARGE,
+        // anything other than HS256 in the header
+        UNSUPPORTED_ALGORITHM,
+        EXPIRED,
+        BAD_SIGNATURE,
+        // the kid isn't in the keystore (yet), a later reload may still find it
+        UNKNOWN_KEY
+    }
+
+    Outcome outcome;
+
+    VerifiedToken token;
+
+    public static TokenVerification valid(VerifiedToken token) {
+        return new TokenVerification(Outcome.VALID, token);
+    }
+
+    public static TokenVerification rejected(Outcome outcome) {
+        return new TokenVerification(outcome, null);
+    }
+
+    public boolean isValid() {
+        return outcome == Outcome.VALID;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of users ordered by id, pass {@code nextCursor} as {@code after} to get the next page.
+ * {@code nextCursor} is null on the last page.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserPage {
+
+    private List<UserSummary> users;
+
+    private Integer nextCursor;
+}
@@ -6,13 +6,18 @@ import org.springframework.security.core.userdetails.UserDetails;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.stream.Collectors;
+import java.util.List;
 
 public class UserPrincipal implements UserDetails {
 
     private final User user;
+
+    // roles don't change for the lifetime of a principal, so the authorities are built only once
+    private final List<GrantedAuthority> authorities;
+
     public UserPrincipal(User user) {
         this.user = user;
+        this.authorities = toAuthorities(user.getRoles());
     }
 
     public User getUser() {
@@ -21,12 +26,16 @@ public class UserPrincipal implements UserDetails {
 
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        if (user.getRoles() == null || user.getRoles().isEmpty()) {
+        return authorities;
+    }
+
+    private static List<GrantedAuthority> toAuthorities(List<String> roles) {
+        if (roles == null || roles.isEmpty()) {
             return Collections.emptyList();
         }
-        return user.getRoles().stream()
-                .map(role -> new SimpleGrantedAuthority(role.startsWith("ROLE_") ? role : "ROLE_" + role))
-                .collect(Collectors.toList());
+        return roles.stream()
+                .map(role -> (GrantedAuthority) new SimpleGrantedAuthority(role.startsWith("ROLE_") ? role : "ROLE_" + role))
+                .toList();
     }
 
     @Override
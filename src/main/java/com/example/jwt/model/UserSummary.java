@@ -0,0 +1,28 @@
+package com.example.jwt.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * What the user listing exposes about a user, the password hash is deliberately not part of it.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class UserSummary {
+
+    private Integer id;
+
+    private String userName;
+
+    private List<String> roles;
+
+    public static UserSummary from(User user) {
+        return new UserSummary(user.getId(), user.getUserName(), user.getRoles() == null ? List.of() : List.copyOf(user.getRoles()));
+    }
+}
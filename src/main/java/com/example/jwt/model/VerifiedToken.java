@@ -0,0 +1,68 @@
+package com.example.jwt.model;
+
+import io.jsonwebtoken.Claims;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Result of parsing and verifying a token exactly once. Everything the filter and the
+ * refresh flow need is read from here instead of parsing the token again.
+ */
+@Value
+@Builder
+public class VerifiedToken {
+
+    public static final String ROLES_CLAIM = "roles";
+
+    // every token pair issued by one login and all its refreshes share the same family id
+    public static final String FAMILY_CLAIM = "fid";
+
+    public static final String TYPE_CLAIM = "typ";
+
+    public static final String ACCESS_TYPE = "access";
+
+    public static final String REFRESH_TYPE = "refresh";
+
+    String token;
+
+    // the jti claim
+    String id;
+
+    String familyId;
+
+    String type;
+
+    String subject;
+
+    Date issuedAt;
+
+    Date expiration;
+
+    Claims claims;
+
+    public boolean isExpired() {
+        return expiration != null && expiration.before(new Date());
+    }
+
+    public boolean isRefreshToken() {
+        return REFRESH_TYPE.equals(type);
+    }
+
+    public boolean belongsTo(String userName) {
+        return subject != null && subject.equals(userName);
+    }
+
+    /**
+     * Roles embedded by a self-contained access token, or {@code null} when the token has none.
+     */
+    public List<String> getRoles() {
+        Object roles = claims == null ? null : claims.get(ROLES_CLAIM);
+        if (!(roles instanceof List<?> list)) {
+            return null;
+        }
+        return list.stream().map(String::valueOf).toList();
+    }
+}
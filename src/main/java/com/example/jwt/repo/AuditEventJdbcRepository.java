@@ -0,0 +1,49 @@
+package com.example.jwt.repo;
+
+import com.example.jwt.model.AuditEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Inserts audit events as JDBC batches. The query timeout keeps a hanging database from stalling
+ * the audit writer, a batch that times out goes to the spool file instead.
+ */
+@Repository
+public class AuditEventJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AuditEventJdbcRepository(DataSource dataSource,
+        @Value("${audit.database.timeout:PT5S}") Duration timeout) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setQueryTimeout((int) Math.max(1, timeout.toSeconds()));
+    }
+
+    public void insertBatch(List<AuditEvent> events) {
+        jdbcTemplate.batchUpdate("insert into audit_events (type, user_name, detail, occurred_at) values (?, ?, ?, ?)",
+            new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    AuditEvent event = events.get(i);
+                    ps.setString(1, event.getType().name());
+                    ps.setString(2, event.getUserName());
+                    ps.setString(3, event.getDetail());
+                    ps.setTimestamp(4, Timestamp.from(event.getOccurredAt()));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return events.size();
+                }
+            });
+    }
+}
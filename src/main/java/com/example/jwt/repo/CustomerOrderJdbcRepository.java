@@ -0,0 +1,181 @@
+package com.example.jwt.repo;
+
+import com.example.jwt.model.CustomerOrder;
+import com.example.jwt.model.ExportFormat;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Plain JDBC access for the bulk paths of customer_orders, where going through hibernate would either
+ * load the whole table into memory or insert row by row (IDENTITY ids switch off hibernate's batching).
+ * Rows are read through a forward-only cursor, postgres only honours the fetch size inside a
+ * transaction, which is why the query runs in a read-only one.
+ */
+@Repository
+public class CustomerOrderJdbcRepository {
+
+    static final RowMapper<CustomerOrder> ROW_MAPPER = (rs, rowNum) -> CustomerOrder.builder()
+        .id(rs.getInt("id"))
+        .orderId(rs.getString("order_id"))
+        .productName(rs.getString("product_name"))
+        .customerName(rs.getString("customer_name"))
+        .deliveryAddress(rs.getString("delivery_address"))
+        .build();
+
+    static final RowMapper<CustomerOrder> EXPORT_ROW_MAPPER = (rs, rowNum) -> {
+        CustomerOrder order = ROW_MAPPER.mapRow(rs, rowNum);
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        order.setUpdatedAt(updatedAt == null ? null : updatedAt.toInstant());
+        return order;
+    };
+
+    // the same text for every export, whichever way it is produced: UTC with microseconds
+    private static final String UPDATED_AT_UTC =
+        "to_char(updated_at at time zone 'UTC', 'YYYY-MM-DD\"T\"HH24:MI:SS.US\"Z\"')";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean copySupported;
+
+    private final TransactionTemplate readOnlyTransaction;
+
+    public CustomerOrderJdbcRepository(DataSource dataSource, PlatformTransactionManager transactionManager,
+        @Value("${orders.stream.fetch-size:500}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Inserts the orders as one JDBC batch. Orders whose orderId already exists are skipped instead of
+     * failing the batch, their entry in the returned array is 0, stored ones are 1.
+     */
+    public int[] insertBatch(List<CustomerOrder> orders) {
+        return jdbcTemplate.batchUpdate(
+            "insert into customer_orders (order_id, product_name, customer_name, delivery_address, customer_key, "
+                + "updated_at) values (?, ?, ?, ?, ?, now()) on conflict (order_id) do nothing",
+            new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    CustomerOrder order = orders.get(i);
+                    ps.setString(1, order.getOrderId());
+                    ps.setString(2, order.getProductName());
+                    ps.setString(3, order.getCustomerName());
+                    ps.setString(4, order.getDeliveryAddress());
+                    ps.setString(5, CustomerOrder.normalizeCustomerName(order.getCustomerName()));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return orders.size();
+                }
+            });
+    }
+
+    /**
+     * Orders matching the tsquery, by rank and then id. The search_vector column and its GIN index are
+     * created by db/order-search-index.sql. With {@code afterRank} and {@code afterId} only the orders
+     * after that position are returned, the rank is a float4 and compares exactly.
+     */
+    public List<RankedOrder> search(String tsQuery, Float afterRank, Integer afterId, int limit) {
+        String sql = "select * from (select o.id, o.order_id, o.product_name, o.customer_name, o.delivery_address, "
+            + "ts_rank(o.search_vector, q) as rank "
+            + "from customer_orders o, to_tsquery('simple', ?) q where o.search_vector @@ q) ranked ";
+        RowMapper<RankedOrder> rowMapper = (rs, rowNum) -> new RankedOrder(ROW_MAPPER.mapRow(rs, rowNum),
+            rs.getFloat("rank"));
+        if (afterRank == null) {
+            return jdbcTemplate.query(sql + "order by rank desc, id limit ?", rowMapper, tsQuery, limit);
+        }
+        return jdbcTemplate.query(sql + "where rank < ? or (rank = ? and id > ?) order by rank desc, id limit ?",
+            rowMapper, tsQuery, afterRank, afterRank, afterId, limit);
+    }
+
+    public record RankedOrder(CustomerOrder order, float rank) {
+    }
+
+    /**
+     * Whether the database is postgres and {@link #copyOut} can be used.
+     */
+    public boolean isCopySupported() {
+        if (copySupported == null) {
+            copySupported = jdbcTemplate.execute(
+                (ConnectionCallback<Boolean>) connection -> connection.isWrapperFor(BaseConnection.class));
+        }
+        return copySupported;
+    }
+
+    /**
+     * Writes the orders written at or after {@code modifiedSince} (all of them when null) in id order with
+     * postgres' COPY TO STDOUT. Rows go from the server's output straight to {@code out}, nothing is mapped
+     * to objects. NDJSON is produced as single column csv with delimiter and quote characters that json text
+     * never contains raw, so postgres writes every line as it is.
+     */
+    public void copyOut(ExportFormat format, Instant modifiedSince, OutputStream out) {
+        // an Instant prints as an ISO-8601 literal, it can't carry anything but a timestamp into the statement
+        String where = modifiedSince == null ? "" : " where updated_at >= '" + modifiedSince + "'::timestamptz";
+        String sql = switch (format) {
+            case CSV -> "copy (select id, order_id, product_name, customer_name, delivery_address, "
+                + UPDATED_AT_UTC + " as updated_at from customer_orders" + where
+                + " order by id) to stdout with (format csv, header)";
+            case NDJSON -> "copy (select json_build_object('id', id, 'orderId', order_id, 'productName', product_name, "
+                + "'customerName', customer_name, 'deliveryAddress', delivery_address, 'updatedAt', " + UPDATED_AT_UTC
+                + ") from customer_orders" + where
+                + " order by id) to stdout with (format csv, delimiter e'\\x02', quote e'\\x01')";
+        };
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return new CopyManager(connection.unwrap(BaseConnection.class)).copyOut(sql, out);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Hands the orders written at or after {@code modifiedSince} (all of them when null) to the consumer in
+     * id order, with their updatedAt. The same read as {@link #streamAll(Consumer)}, for databases without COPY.
+     */
+    public void streamForExport(Instant modifiedSince, Consumer<CustomerOrder> consumer) {
+        RowCallbackHandler handler = rs -> consumer.accept(EXPORT_ROW_MAPPER.mapRow(rs, rs.getRow()));
+        String sql = "select id, order_id, product_name, customer_name, delivery_address, updated_at "
+            + "from customer_orders" + (modifiedSince == null ? "" : " where updated_at >= ?") + " order by id";
+        readOnlyTransaction.executeWithoutResult(status -> {
+            if (modifiedSince == null) {
+                jdbcTemplate.query(sql, handler);
+            } else {
+                jdbcTemplate.query(sql, handler, Timestamp.from(modifiedSince));
+            }
+        });
+    }
+
+    /**
+     * Hands every order to the consumer in id order, holding at most one fetch of rows in memory.
+     */
+    public void streamAll(Consumer<CustomerOrder> consumer) {
+        RowCallbackHandler handler = rs -> consumer.accept(ROW_MAPPER.mapRow(rs, rs.getRow()));
+        readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(
+            "select id, order_id, product_name, customer_name, delivery_address from customer_orders order by id",
+            handler));
+    }
+}
@@ -2,6 +2,7 @@ package com.example.jwt.repo;
 
 
 import com.example.jwt.model.CustomerOrder;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -12,5 +13,9 @@ public interface CustomerOrderRepository extends JpaRepository<CustomerOrder, In
 
     CustomerOrder findByOrderId(String orderId);
 
-    List<CustomerOrder> findByCustomerName(String customerName);
+    List<CustomerOrder> findByCustomerKeyAndIdGreaterThanOrderByIdAsc(String customerKey, Integer afterId,
+        Limit limit);
+
+    // keyset pagination, the primary key index makes every page cost the same no matter how deep it is
+    List<CustomerOrder> findByIdGreaterThanOrderByIdAsc(Integer afterId, Limit limit);
 }
@@ -0,0 +1,31 @@
+package com.example.jwt.repo;
+
+import com.example.jwt.model.OrderVersion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OrderVersionRepository extends JpaRepository<OrderVersion, Integer> {
+
+    @Query("select v.version from OrderVersion v where v.bucket = :bucket")
+    Long findVersion(int bucket);
+
+    @Query("select max(v.version) from OrderVersion v")
+    Long findLatestVersion();
+
+    @Query("select v.bucket from OrderVersion v")
+    List<Integer> findAllBuckets();
+
+    // a short transaction of its own, the rows are only locked for this one statement
+    @Transactional
+    @Modifying
+    @Query(value = "update order_versions set version = nextval('order_version_seq') where bucket in (:buckets)",
+        nativeQuery = true)
+    int advance(Collection<Integer> buckets);
+}
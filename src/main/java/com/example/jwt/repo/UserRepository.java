@@ -1,11 +1,23 @@
 package com.example.jwt.repo;
 
 import com.example.jwt.model.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface UserRepository extends JpaRepository<User, Integer> {
 
     User findByUserName(String userName);
+
+    // only ids, selecting the entities here would load the eager roles with one query per user
+    @Query("select u.id from User u where u.id > :afterId order by u.id")
+    List<Integer> findIdsAfter(Integer afterId, Limit limit);
+
+    @Query("select distinct u from User u left join fetch u.roles where u.id in :ids order by u.id")
+    List<User> findAllWithRolesByIdIn(Collection<Integer> ids);
 }
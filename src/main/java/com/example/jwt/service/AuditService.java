@@ -0,0 +1,279 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.AuditEvent;
+import com.example.jwt.repo.AuditEventJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compliance audit trail of logins, refreshes and created orders, kept off the request path. {@link #record}
+ * only puts the event into a bounded lock-free ring buffer, one background thread writes the buffer to
+ * audit_events in JDBC batches. When a batch fails or takes longer than audit.database.slow-threshold, the
+ * writer stops using the database for audit.database.retry-after and appends to the spool file instead.
+ * <p>
+ * On shutdown the writer empties the buffer before the datasource goes away, whatever it doesn't manage
+ * within audit.shutdown-timeout is spooled.
+ */
+@Service
+@Slf4j
+public class AuditService {
+
+    /**
+     * What {@link #record} does when the buffer is full.
+     */
+    public enum Backpressure {
+        // wait up to audit.backpressure.max-wait for room, then write the event to the spool file
+        BLOCK,
+        // write the event to the spool file right away
+        SPOOL,
+        // discard the event, counted as audit.events{result=dropped}
+        DROP
+    }
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AuditEventJdbcRepository auditEventJdbcRepository;
+
+    private final AuditRingBuffer<AuditEvent> buffer;
+
+    private final AuditSpool spool;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private final Backpressure backpressure;
+
+    private final long maxWaitNanos;
+
+    private final long slowThresholdNanos;
+
+    private final long retryAfterNanos;
+
+    private final Duration shutdownTimeout;
+
+    private final Counter writtenToDatabase;
+
+    private final Counter writtenToSpool;
+
+    private final Counter dropped;
+
+    private final Timer batchWrite;
+
+    private Thread writer;
+
+    private volatile boolean running = true;
+
+    private volatile boolean closed;
+
+    // set when the writer didn't finish within audit.shutdown-timeout, it then takes no more events from the buffer
+    private volatile boolean writerAbandoned;
+
+    // System.nanoTime() until which batches go to the spool file, 0 while the database is used
+    private volatile long databaseBypassedUntil;
+
+    public AuditService(AuditEventJdbcRepository auditEventJdbcRepository, ObjectMapper objectMapper,
+        MeterRegistry meterRegistry,
+        @Value("${audit.queue-capacity:65536}") int queueCapacity,
+        @Value("${audit.batch-size:500}") int batchSize,
+        @Value("${audit.flush-interval:PT0.2S}") Duration flushInterval,
+        @Value("${audit.backpressure:BLOCK}") Backpressure backpressure,
+        @Value("${audit.backpressure.max-wait:PT0.1S}") Duration maxWait,
+        @Value("${audit.database.slow-threshold:PT1S}") Duration slowThreshold,
+        @Value("${audit.database.retry-after:PT30S}") Duration retryAfter,
+        @Value("${audit.spool-file:audit-spool.ndjson}") Path spoolFile,
+        @Value("${audit.shutdown-timeout:PT10S}") Duration shutdownTimeout) {
+        this.auditEventJdbcRepository = auditEventJdbcRepository;
+        this.buffer = new AuditRingBuffer<>(queueCapacity);
+        this.spool = new AuditSpool(spoolFile, objectMapper);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.backpressure = backpressure;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.slowThresholdNanos = slowThreshold.toNanos();
+        this.retryAfterNanos = retryAfter.toNanos();
+        this.shutdownTimeout = shutdownTimeout;
+
+        Gauge.builder("audit.queue.depth", buffer, AuditRingBuffer::size)
+            .description("audit events waiting for the writer")
+            .register(meterRegistry);
+        Gauge.builder("audit.queue.capacity", buffer, AuditRingBuffer::capacity)
+            .register(meterRegistry);
+        Gauge.builder("audit.database.bypassed", this, service -> service.isDatabaseBypassed() ? 1 : 0)
+            .description("1 while audit events go to the spool file instead of the database")
+            .register(meterRegistry);
+        this.writtenToDatabase = Counter.builder("audit.events").tag("result", "database").register(meterRegistry);
+        this.writtenToSpool = Counter.builder("audit.events").tag("result", "spool").register(meterRegistry);
+        this.dropped = Counter.builder("audit.events").tag("result", "dropped").register(meterRegistry);
+        this.batchWrite = Timer.builder("audit.batch.write")
+            .description("time to insert one batch of audit events")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void startWriter() {
+        writer = Thread.ofPlatform().name("audit-writer").daemon().start(this::writeLoop);
+        log.info("audit writer started with a buffer of {} events, backpressure {}, spool file {}",
+            buffer.capacity(), backpressure, spool.getPath());
+    }
+
+    /**
+     * Queues the event, the caller never waits for the database. It only waits, up to
+     * audit.backpressure.max-wait, when the buffer is full and the policy is BLOCK.
+     */
+    public void record(AuditEvent.Type type, String userName, String detail) {
+        AuditEvent event = AuditEvent.builder()
+            .type(type)
+            .userName(userName)
+            .detail(detail)
+            .occurredAt(Instant.now())
+            .build();
+        if (closed) {
+            spool(List.of(event));
+            return;
+        }
+        if (buffer.offer(event)) {
+            if (closed) {
+                // close() started while this was offered, its final drain may already be over
+                spoolRemaining();
+            } else if (buffer.size() >= batchSize) {
+                LockSupport.unpark(writer);
+            }
+            return;
+        }
+        switch (backpressure) {
+            case BLOCK -> {
+                if (!offerWithinMaxWait(event)) {
+                    spool(List.of(event));
+                } else if (closed) {
+                    spoolRemaining();
+                }
+            }
+            case SPOOL -> spool(List.of(event));
+            case DROP -> dropped.increment();
+        }
+    }
+
+    private boolean offerWithinMaxWait(AuditEvent event) {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        do {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            if (buffer.offer(event)) {
+                return true;
+            }
+        } while (System.nanoTime() - deadline < 0);
+        return false;
+    }
+
+    public boolean isDatabaseBypassed() {
+        long bypassedUntil = databaseBypassedUntil;
+        return bypassedUntil != 0 && System.nanoTime() - bypassedUntil < 0;
+    }
+
+    // waits for a full batch or the flush interval, whichever comes first
+    private void writeLoop() {
+        List<AuditEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            if (buffer.size() < batchSize) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+            flush(batch);
+        }
+        flush(batch);
+    }
+
+    private void flush(List<AuditEvent> batch) {
+        while (!writerAbandoned && buffer.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<AuditEvent> batch) {
+        if (writerAbandoned || isDatabaseBypassed()) {
+            spool(batch);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            auditEventJdbcRepository.insertBatch(batch);
+        } catch (DataAccessException ex) {
+            log.warn("writing {} audit events failed, spooling to {} for the next {} s", batch.size(),
+                spool.getPath(), TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos), ex);
+            bypassDatabase();
+            spool(batch);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        batchWrite.record(elapsed, TimeUnit.NANOSECONDS);
+        writtenToDatabase.increment(batch.size());
+        if (elapsed > slowThresholdNanos) {
+            log.warn("writing {} audit events took {} ms, spooling to {} for the next {} s", batch.size(),
+                TimeUnit.NANOSECONDS.toMillis(elapsed), spool.getPath(), TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos));
+            bypassDatabase();
+        }
+    }
+
+    private void bypassDatabase() {
+        // never 0, that means "not bypassed"
+        databaseBypassedUntil = (System.nanoTime() + retryAfterNanos) | 1;
+    }
+
+    private void spool(List<AuditEvent> events) {
+        try {
+            spool.append(events);
+            writtenToSpool.increment(events.size());
+        } catch (IOException | RuntimeException ex) {
+            log.error("lost {} audit events, the spool file {} can't be written", events.size(), spool.getPath(), ex);
+            dropped.increment(events.size());
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        closed = true;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(shutdownTimeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            // stops it before the drain below, its current batch goes to the spool unless it already reached the database
+            writerAbandoned = true;
+            log.warn("audit writer did not finish within {}, spooling the remaining {} events", shutdownTimeout,
+                buffer.size());
+        }
+        // events offered while the writer was finishing, or all of them if it didn't finish in time
+        spoolRemaining();
+        spool.close();
+    }
+
+    private void spoolRemaining() {
+        List<AuditEvent> remaining = new ArrayList<>(batchSize);
+        while (buffer.drainTo(remaining, batchSize) > 0) {
+            spool(remaining);
+            remaining.clear();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.AuditEvent;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only file of audit events, one json object per line, for the times the database can't take them.
+ * Every append is forced to disk before it returns. The lines have the columns of audit_events and can be
+ * loaded into the table once the database is healthy again.
+ * <p>
+ * Request threads append here too (backpressure, after shutdown). They are virtual threads, so the fsync
+ * happens under a ReentrantLock rather than a monitor, which would pin the carrier thread while it waits.
+ */
+final class AuditSpool implements Closeable {
+
+    private final Path path;
+
+    private final ObjectMapper objectMapper;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private FileChannel channel;
+
+    AuditSpool(Path path, ObjectMapper objectMapper) {
+        this.path = path.toAbsolutePath();
+        this.objectMapper = objectMapper;
+    }
+
+    void append(List<AuditEvent> events) throws IOException {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream(events.size() * 128);
+        for (AuditEvent event : events) {
+            lines.write(objectMapper.writeValueAsBytes(event));
+            lines.write('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+        lock.lock();
+        try {
+            if (channel == null) {
+                Files.createDirectories(path.getParent());
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
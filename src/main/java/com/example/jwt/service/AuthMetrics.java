@@ -0,0 +1,87 @@
+package com.example.jwt.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the authentication pipeline, all registered under the "auth." prefix:
+ * <ul>
+ *     <li>auth.stage - latency of each JwtFilter stage (extract, token_cache, verify, load_user, security_context)</li>
+ *     <li>auth.token.outcome - how bearer tokens were judged (VALID, EXPIRED, BAD_SIGNATURE, UNKNOWN_USER ...)</li>
+ *     <li>auth.password.hash - bcrypt time including the wait for the hashing pool, by operation</li>
+ *     <li>auth.tokens.issued - minted tokens by type</li>
+ * </ul>
+ * Timers publish histogram buckets so p99 can be computed over all nodes in prometheus.
+ */
+@Component
+public class AuthMetrics {
+
+    public static final String STAGE_EXTRACT = "extract";
+
+    // digest of the token and the lookup in the VerifiedTokenCache
+    public static final String STAGE_TOKEN_CACHE = "token_cache";
+
+    public static final String STAGE_VERIFY = "verify";
+
+    public static final String STAGE_LOAD_USER = "load_user";
+
+    public static final String STAGE_SECURITY_CONTEXT = "security_context";
+
+    private final MeterRegistry meterRegistry;
+
+    // meters are looked up on every request, so they are resolved once per tag value and kept
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> outcomeCounters = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> hashTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> issuedCounters = new ConcurrentHashMap<>();
+
+    public AuthMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void recordStage(String stage, long startNanos) {
+        stageTimers.computeIfAbsent(stage, name -> latencyTimer("auth.stage", "stage", name,
+                "Time spent in one stage of the JwtFilter"))
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordOutcome(String outcome) {
+        outcomeCounters.computeIfAbsent(outcome, name -> Counter.builder("auth.token.outcome")
+                .description("Bearer tokens by verification outcome")
+                .tag("outcome", name)
+                .register(meterRegistry))
+            .increment();
+    }
+
+    public void recordPasswordHash(String operation, long startNanos) {
+        hashTimers.computeIfAbsent(operation, name -> latencyTimer("auth.password.hash", "operation", name,
+                "bcrypt time including the wait for a hashing thread"))
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordIssued(String tokenType) {
+        issuedCounters.computeIfAbsent(tokenType, name -> Counter.builder("auth.tokens.issued")
+                .description("Tokens minted by type")
+                .tag("type", name)
+                .register(meterRegistry))
+            .increment();
+    }
+
+    private Timer latencyTimer(String name, String tagKey, String tagValue, String description) {
+        return Timer.builder(name)
+            .description(description)
+            .tag(tagKey, tagValue)
+            .publishPercentileHistogram()
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+    }
+}
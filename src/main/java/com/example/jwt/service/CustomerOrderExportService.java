@@ -0,0 +1,132 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.CustomerOrder;
+import com.example.jwt.model.ExportFormat;
+import com.example.jwt.repo.CustomerOrderJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bulk export of customer_orders for reconciliation. On postgres the rows are produced by COPY, otherwise
+ * (or with orders.export.use-copy=false) they are read through a forward-only cursor and formatted here
+ * in the same layout. Either way memory use doesn't depend on the number of orders.
+ */
+@Service
+@Slf4j
+public class CustomerOrderExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] CSV_HEADER =
+        "id,order_id,product_name,customer_name,delivery_address,updated_at\n".getBytes(StandardCharsets.UTF_8);
+
+    // matches the to_char pattern the COPY query formats updated_at with
+    private static final DateTimeFormatter UPDATED_AT =
+        DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSSSS'Z'").withZone(ZoneOffset.UTC);
+
+    private final CustomerOrderJdbcRepository customerOrderJdbcRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean useCopy;
+
+    public CustomerOrderExportService(CustomerOrderJdbcRepository customerOrderJdbcRepository,
+        ObjectMapper objectMapper, @Value("${orders.export.use-copy:true}") boolean useCopy) {
+        this.customerOrderJdbcRepository = customerOrderJdbcRepository;
+        this.objectMapper = objectMapper;
+        this.useCopy = useCopy;
+    }
+
+    /**
+     * Writes the orders written at or after {@code modifiedSince} (all of them when null) to {@code out}
+     * in id order, gzipped if asked for. {@code out} is flushed but not closed.
+     */
+    public void export(ExportFormat format, Instant modifiedSince, boolean gzip, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(StreamUtils.nonClosing(out), BUFFER_SIZE) : null;
+        OutputStream target = new BufferedOutputStream(gzip ? gzipStream : out, BUFFER_SIZE);
+        try {
+            if (useCopy && customerOrderJdbcRepository.isCopySupported()) {
+                customerOrderJdbcRepository.copyOut(format, modifiedSince, target);
+            } else {
+                writeRows(format, modifiedSince, target);
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        target.flush();
+        if (gzipStream != null) {
+            gzipStream.finish();
+        }
+        out.flush();
+        log.info("exported orders as {} (modified since {}, gzip {}) in {} ms", format, modifiedSince, gzip,
+            (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void writeRows(ExportFormat format, Instant modifiedSince, OutputStream out) throws IOException {
+        if (format == ExportFormat.CSV) {
+            out.write(CSV_HEADER);
+        }
+        customerOrderJdbcRepository.streamForExport(modifiedSince, order -> {
+            try {
+                if (format == ExportFormat.CSV) {
+                    writeCsvLine(order, out);
+                } else {
+                    writeJsonLine(order, out);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    private void writeJsonLine(CustomerOrder order, OutputStream out) throws IOException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", order.getId());
+        row.put("orderId", order.getOrderId());
+        row.put("productName", order.getProductName());
+        row.put("customerName", order.getCustomerName());
+        row.put("deliveryAddress", order.getDeliveryAddress());
+        row.put("updatedAt", order.getUpdatedAt() == null ? null : UPDATED_AT.format(order.getUpdatedAt()));
+        out.write(objectMapper.writeValueAsBytes(row));
+        out.write('\n');
+    }
+
+    private static void writeCsvLine(CustomerOrder order, OutputStream out) throws IOException {
+        StringBuilder line = new StringBuilder(128).append(order.getId());
+        appendCsvField(line, order.getOrderId());
+        appendCsvField(line, order.getProductName());
+        appendCsvField(line, order.getCustomerName());
+        appendCsvField(line, order.getDeliveryAddress());
+        appendCsvField(line, order.getUpdatedAt() == null ? null : UPDATED_AT.format(order.getUpdatedAt()));
+        out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // quoted like postgres' csv output: null is empty, an empty string is "", special characters are quoted
+    private static void appendCsvField(StringBuilder line, String value) {
+        line.append(',');
+        if (value == null) {
+            return;
+        }
+        if (value.isEmpty() || value.chars().anyMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) {
+            line.append('"').append(value.replace("\"", "\"\"")).append('"');
+        } else {
+            line.append(value);
+        }
+    }
+}
@@ -1,44 +1,322 @@
 package com.example.jwt.service;
 
+import com.example.jwt.model.AuditEvent;
+import com.example.jwt.model.BatchItemResult;
+import com.example.jwt.model.BatchResult;
 import com.example.jwt.model.CustomerOrder;
+import com.example.jwt.model.CustomerOrderPage;
+import com.example.jwt.model.OrderSearchPage;
 import com.example.jwt.model.User;
 import com.example.jwt.model.UserPrincipal;
+import com.example.jwt.repo.CustomerOrderJdbcRepository;
 import com.example.jwt.repo.CustomerOrderRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class CustomerOrderService {
 
+    private static final int MAX_SEARCH_WORDS = 8;
+
     private final CustomerOrderRepository customerOrderRepository;
 
-    public CustomerOrderService(CustomerOrderRepository customerOrderRepository) {
+    private final CustomerOrderJdbcRepository customerOrderJdbcRepository;
+
+    private final int maxPageSize;
+
+    private final int insertBatchSize;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // orderId lookups are polled constantly for the same hot orders, an empty Optional remembers a miss
+    private final Cache<String, Optional<CustomerOrder>> orderIdCache;
+
+    private final boolean orderIdCacheEnabled;
+
+    private final OrderChangeCounter orderChangeCounter;
+
+    private final AuditService auditService;
+
+    public CustomerOrderService(CustomerOrderRepository customerOrderRepository,
+        CustomerOrderJdbcRepository customerOrderJdbcRepository,
+        PlatformTransactionManager transactionManager,
+        OrderChangeCounter orderChangeCounter,
+        AuditService auditService,
+        MeterRegistry meterRegistry,
+        @Value("${orders.page.max-size:1000}") int maxPageSize,
+        @Value("${orders.batch.insert-size:500}") int insertBatchSize,
+        @Value("${orders.cache.enabled:true}") boolean orderIdCacheEnabled,
+        @Value("${orders.cache.maximum-size:10000}") long orderIdCacheSize,
+        @Value("${orders.cache.ttl:PT1M}") Duration orderIdCacheTtl,
+        @Value("${orders.cache.negative-ttl:PT5S}") Duration orderIdCacheNegativeTtl) {
         this.customerOrderRepository = customerOrderRepository;
+        this.customerOrderJdbcRepository = customerOrderJdbcRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.orderChangeCounter = orderChangeCounter;
+        this.auditService = auditService;
+        this.maxPageSize = maxPageSize;
+        this.insertBatchSize = insertBatchSize;
+        this.orderIdCacheEnabled = orderIdCacheEnabled;
+        this.orderIdCache = Caffeine.newBuilder()
+            .maximumSize(orderIdCacheSize)
+            .expireAfter(Expiry.<String, Optional<CustomerOrder>>writing(
+                (orderId, order) -> order.isPresent() ? orderIdCacheTtl : orderIdCacheNegativeTtl))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, orderIdCache, "orders.by-order-id");
+    }
+
+    /**
+     * Orders of the logged in user, paginated like {@link #getCustomerOrders(Integer, int)}.
+     */
+    public CustomerOrderPage getCustomerOrdersOfLoggedInUser(Integer afterId, int size) {
+        String customerKey = loggedInCustomerKey();
+        if (customerKey != null) {
+            int pageSize = pageSize(size);
+            return toPage(customerOrderRepository.findByCustomerKeyAndIdGreaterThanOrderByIdAsc(
+                customerKey, afterId == null ? 0 : afterId, Limit.of(pageSize + 1)), pageSize);
+        }
+        return new CustomerOrderPage(Collections.emptyList(), null);
     }
 
-    public List<CustomerOrder> getAllCustomerOrdersBasedOnUserNameFromLogin() {
+    /**
+     * Changes whenever an order of the logged in user is written, used as the ETag of my-orders.
+     * Null when nobody is logged in.
+     */
+    public String getCustomerOrdersOfLoggedInUserVersion() {
+        String customerKey = loggedInCustomerKey();
+        return customerKey == null ? null : orderChangeCounter.customerVersion(customerKey);
+    }
 
+    /**
+     * Changes whenever any order is written, used as the ETag of the order listing.
+     */
+    public String getCustomerOrdersVersion() {
+        return orderChangeCounter.allOrdersVersion();
+    }
+
+    private static String loggedInCustomerKey() {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth != null && auth.getPrincipal() instanceof UserPrincipal userPrincipal) {
             User user = userPrincipal.getUser();
-            return customerOrderRepository.findByCustomerName(user.getUserName().toLowerCase());
+            return CustomerOrder.normalizeCustomerName(user.getUserName());
+        }
+        return null;
+    }
+
+    private static String loggedInUserName() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth == null ? null : auth.getName();
+    }
+
+    /**
+     * Returns the orders with an id greater than {@code afterId}, at most {@code size} of them
+     * (capped by orders.page.max-size).
+     */
+    public CustomerOrderPage getCustomerOrders(Integer afterId, int size) {
+        int pageSize = pageSize(size);
+        return toPage(customerOrderRepository.findByIdGreaterThanOrderByIdAsc(
+            afterId == null ? 0 : afterId, Limit.of(pageSize + 1)), pageSize);
+    }
+
+    /**
+     * Orders whose product name or delivery address contain every word of the query, the last letters of
+     * a word may be missing. Best matches first; the cursor is the rank and id of the last order on the page.
+     */
+    public OrderSearchPage searchCustomerOrders(String query, String after, int size) {
+        String tsQuery = toPrefixQuery(query);
+        if (tsQuery == null) {
+            return new OrderSearchPage(Collections.emptyList(), null);
+        }
+        Float afterRank = null;
+        Integer afterId = null;
+        if (after != null) {
+            int separator = after.indexOf(':');
+            try {
+                afterRank = Float.parseFloat(after.substring(0, Math.max(separator, 0)));
+                afterId = Integer.parseInt(after.substring(separator + 1));
+            } catch (NumberFormatException ex) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed search cursor: " + after);
+            }
+        }
+
+        int pageSize = pageSize(size);
+        List<CustomerOrderJdbcRepository.RankedOrder> hits =
+            customerOrderJdbcRepository.search(tsQuery, afterRank, afterId, pageSize + 1);
+        List<CustomerOrder> orders = hits.stream().limit(pageSize).map(CustomerOrderJdbcRepository.RankedOrder::order)
+            .toList();
+        if (hits.size() <= pageSize) {
+            return new OrderSearchPage(orders, null);
+        }
+        CustomerOrderJdbcRepository.RankedOrder last = hits.get(pageSize - 1);
+        return new OrderSearchPage(orders, last.rank() + ":" + last.order().getId());
+    }
+
+    // only letters and digits reach the tsquery, every word becomes a prefix match and all of them must match
+    private static String toPrefixQuery(String query) {
+        if (query == null) {
+            return null;
         }
-        return Collections.emptyList();
+        String tsQuery = Arrays.stream(query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+            .filter(word -> !word.isEmpty())
+            .limit(MAX_SEARCH_WORDS)
+            .map(word -> word + ":*")
+            .collect(Collectors.joining(" & "));
+        return tsQuery.isEmpty() ? null : tsQuery;
     }
 
-    public List<CustomerOrder> getAllCustomerOrders() {
-        return customerOrderRepository.findAll();
+    private int pageSize(int requestedSize) {
+        return Math.max(1, Math.min(requestedSize, maxPageSize));
+    }
+
+    // the queries fetch one extra row, it tells us whether there is a next page without a count query
+    private static CustomerOrderPage toPage(List<CustomerOrder> orders, int pageSize) {
+        if (orders.size() <= pageSize) {
+            return new CustomerOrderPage(orders, null);
+        }
+        List<CustomerOrder> page = orders.subList(0, pageSize);
+        return new CustomerOrderPage(page, page.get(pageSize - 1).getId());
+    }
+
+    public void streamAllCustomerOrders(Consumer<CustomerOrder> consumer) {
+        customerOrderJdbcRepository.streamAll(consumer);
     }
 
     public CustomerOrder findByOrderId(String orderId) {
-        return customerOrderRepository.findByOrderId(orderId);
+        if (!orderIdCacheEnabled || orderId == null) {
+            return customerOrderRepository.findByOrderId(orderId);
+        }
+        return orderIdCache.get(orderId,
+            key -> Optional.ofNullable(customerOrderRepository.findByOrderId(key))).orElse(null);
     }
 
     public CustomerOrder addCustomerOrder(CustomerOrder customerOrder) {
-        return customerOrderRepository.save(customerOrder);
+        CustomerOrder saved = customerOrderRepository.save(customerOrder);
+        orderChangeCounter.changed(
+            Collections.singletonList(CustomerOrder.normalizeCustomerName(saved.getCustomerName())));
+        auditService.record(AuditEvent.Type.ORDER_CREATED, loggedInUserName(), saved.getOrderId());
+        if (orderIdCacheEnabled && saved.getOrderId() != null) {
+            // write through, this also replaces a cached "not found" for the new orderId
+            orderIdCache.put(saved.getOrderId(), Optional.of(saved));
+        }
+        return saved;
+    }
+
+    /**
+     * Stores the orders in JDBC batches of orders.batch.insert-size, every batch in its own transaction,
+     * so the orders are consumed from the iterator without holding the whole upload in memory.
+     * Batches that were committed stay stored even if a later item of the upload can't be read.
+     * A batch the database refuses is stored order by order to find the rejected ones, a batch that fails
+     * for another reason is reported as FAILED and the upload goes on with the next one.
+     */
+    public BatchResult addCustomerOrders(Iterator<CustomerOrder> orders) {
+        List<BatchItemResult> results = new ArrayList<>();
+        List<CustomerOrder> chunk = new ArrayList<>(insertBatchSize);
+        List<Integer> chunkIndexes = new ArrayList<>(insertBatchSize);
+        int index = 0;
+        while (orders.hasNext()) {
+            CustomerOrder order = orders.next();
+            if (order == null || order.getOrderId() == null || order.getOrderId().isBlank()) {
+                results.add(new BatchItemResult(index++, order == null ? null : order.getOrderId(),
+                    BatchItemResult.Status.REJECTED));
+                continue;
+            }
+            chunk.add(order);
+            chunkIndexes.add(index++);
+            if (chunk.size() == insertBatchSize) {
+                insertChunk(chunk, chunkIndexes, results);
+            }
+        }
+        insertChunk(chunk, chunkIndexes, results);
+
+        results.sort((left, right) -> Integer.compare(left.getIndex(), right.getIndex()));
+        BatchResult batchResult = new BatchResult(0, 0, 0, 0, results);
+        for (BatchItemResult result : results) {
+            switch (result.getStatus()) {
+                case CREATED -> batchResult.setCreated(batchResult.getCreated() + 1);
+                case DUPLICATE -> batchResult.setDuplicates(batchResult.getDuplicates() + 1);
+                case REJECTED -> batchResult.setRejected(batchResult.getRejected() + 1);
+                case FAILED -> batchResult.setFailed(batchResult.getFailed() + 1);
+            }
+        }
+        return batchResult;
+    }
+
+    private void insertChunk(List<CustomerOrder> chunk, List<Integer> chunkIndexes, List<BatchItemResult> results) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        String userName = loggedInUserName();
+        List<BatchItemResult.Status> statuses = insertInTransaction(chunk);
+        if (statuses == null) {
+            statuses = new ArrayList<>(chunk.size());
+            for (CustomerOrder order : chunk) {
+                List<BatchItemResult.Status> single = insertInTransaction(List.of(order));
+                statuses.add(single == null ? BatchItemResult.Status.REJECTED : single.get(0));
+            }
+        }
+        List<String> createdCustomers = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            if (statuses.get(i) == BatchItemResult.Status.CREATED) {
+                createdCustomers.add(CustomerOrder.normalizeCustomerName(chunk.get(i).getCustomerName()));
+            }
+        }
+        orderChangeCounter.changed(createdCustomers);
+        // the batch bypasses the entity, drop whatever the cache knows about these orderIds (mostly misses)
+        chunk.forEach(order -> orderIdCache.invalidate(order.getOrderId()));
+        for (int i = 0; i < chunk.size(); i++) {
+            if (statuses.get(i) == BatchItemResult.Status.CREATED) {
+                auditService.record(AuditEvent.Type.ORDER_CREATED, userName, chunk.get(i).getOrderId());
+            }
+            results.add(new BatchItemResult(chunkIndexes.get(i), chunk.get(i).getOrderId(), statuses.get(i)));
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    /**
+     * @return CREATED or DUPLICATE per order, all FAILED when the database failed,
+     * or null when it refused one of the orders and none were stored
+     */
+    private List<BatchItemResult.Status> insertInTransaction(List<CustomerOrder> orders) {
+        try {
+            int[] updateCounts = transactionTemplate.execute(status -> customerOrderJdbcRepository.insertBatch(orders));
+            return Arrays.stream(updateCounts)
+                .mapToObj(count -> count == 0 ? BatchItemResult.Status.DUPLICATE : BatchItemResult.Status.CREATED)
+                .toList();
+        } catch (DataIntegrityViolationException ex) {
+            log.debug("database refused {} orders", orders.size(), ex);
+            return null;
+        } catch (DataAccessException ex) {
+            log.warn("storing {} orders failed", orders.size(), ex);
+            return Collections.nCopies(orders.size(), BatchItemResult.Status.FAILED);
+        }
     }
 }
@@ -1,23 +1,34 @@
 package com.example.jwt.service;
 
 import com.example.jwt.model.LoginResponse;
+import com.example.jwt.model.TokenVerification;
+import com.example.jwt.model.TokenVerification.Outcome;
+import com.example.jwt.model.VerifiedToken;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.io.Decoders;
-import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.security.SignatureException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import javax.crypto.KeyGenerator;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
-import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.UUID;
 
 @Service
 @Slf4j
@@ -27,102 +38,279 @@ public class JwtService {
 
     private final int REFRESH_TOKEN_EXPIRY_IN_MINUTES = 1000 * 60 * 5;
 
-    private final String secretKey;
+    private final SigningKeyRing signingKeyRing;
 
-    public JwtService() {
-        this.secretKey = generateSecretKey();
+    private final TokenPreValidator tokenPreValidator;
+
+    private final AuthMetrics authMetrics;
+
+    // the parser is immutable and thread safe, it looks the verification key up by the token's kid header
+    private final JwtParser parser;
+
+    private final TokenMinter tokenMinter = new TokenMinter();
+
+    // tokens are written by the TokenMinter unless it is disabled or didn't match jjwt on startup
+    private final boolean fastMinting;
+
+    /**
+     * When enabled the access token carries the user's roles, so the JwtFilter can build the
+     * authentication from the token alone and the database is only used on login and refresh.
+     */
+    @Value("${jwt.access-token.self-contained:false}")
+    private boolean selfContainedTokens;
+
+    public JwtService(SigningKeyRing signingKeyRing, TokenPreValidator tokenPreValidator,
+        AuthMetrics authMetrics, @Value("${jwt.minting.fast-path:true}") boolean fastMinting) {
+        this.signingKeyRing = signingKeyRing;
+        this.tokenPreValidator = tokenPreValidator;
+        this.authMetrics = authMetrics;
+        this.parser = Jwts.parserBuilder().setSigningKeyResolver(new SigningKeyResolverAdapter() {
+            @Override
+            public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                return signingKeyRing.getVerificationKey(header.getKeyId());
+            }
+        }).build();
+        this.fastMinting = fastMinting && fastMintingMatchesJjwt();
     }
 
 
+    public boolean isSelfContainedTokens() {
+        return selfContainedTokens;
+    }
+
+    public long getRefreshTokenValidityMillis() {
+        return REFRESH_TOKEN_EXPIRY_IN_MINUTES;
+    }
+
     public LoginResponse generateTokens(String userName) {
-        return LoginResponse.builder().accessToken(generateAccessToken(userName))
-            .refreshToken(generateRefreshToken(userName)).refreshTokenInMinutes(60).build();
+        return generateTokens(userName, Collections.emptyList());
     }
 
-    public LoginResponse generateTokens(String userName, String refreshToken) {
-        return LoginResponse.builder().accessToken(generateAccessToken(userName))
-            .refreshToken(refreshToken).refreshTokenInMinutes(60).build();
+    /**
+     * Tokens for a new login, they start a new token family.
+     */
+    public LoginResponse generateTokens(String userName, Collection<? extends GrantedAuthority> authorities) {
+        return generateTokens(userName, authorities, UUID.randomUUID().toString());
+    }
+
+    /**
+     * A new access and refresh token in the given family, used when a refresh token is rotated.
+     */
+    public LoginResponse generateTokens(String userName, Collection<? extends GrantedAuthority> authorities,
+        String familyId) {
+        return LoginResponse.builder().accessToken(generateAccessToken(userName, authorities, familyId))
+            .refreshToken(generateRefreshToken(userName, familyId)).refreshTokenInMinutes(60).build();
     }
 
     // Generating the token
     public String generateAccessToken(String username) {
+        return generateAccessToken(username, Collections.emptyList());
+    }
 
-        Map<String, Object> claims = new HashMap<>();
+    public String generateAccessToken(String username, Collection<? extends GrantedAuthority> authorities) {
+        return generateAccessToken(username, authorities, UUID.randomUUID().toString());
+    }
+
+    private String generateAccessToken(String username, Collection<? extends GrantedAuthority> authorities,
+        String familyId) {
 
-        claims.put("username", username);
+        List<String> roles = null;
+        if (selfContainedTokens) {
+            // roles are stored without the ROLE_ prefix to keep the token small, UserPrincipal adds it back
+            roles = authorities.stream()
+                .map(GrantedAuthority::getAuthority)
+                .map(authority -> authority.startsWith("ROLE_") ? authority.substring(5) : authority)
+                .toList();
+        }
 
-        return Jwts.builder().setClaims(claims).setSubject(username)
-            .setIssuedAt(new Date(System.currentTimeMillis()))
-            .setExpiration(new Date(System.currentTimeMillis() + ACCESS_TOKEN_EXPIRY_IN_MINUTES))
-            .signWith(getKey(), SignatureAlgorithm.HS256).compact();
+        authMetrics.recordIssued(VerifiedToken.ACCESS_TYPE);
+        return mint(username, VerifiedToken.ACCESS_TYPE, familyId, roles, ACCESS_TOKEN_EXPIRY_IN_MINUTES);
 
     }
 
-    private Key getKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secretKey);
-        return Keys.hmacShaKeyFor(keyBytes);
+    private String mint(String username, String type, String familyId, List<String> roles, long validityMillis) {
+        long now = System.currentTimeMillis();
+        TokenMinter.Spec spec = new TokenMinter.Spec(username, type, familyId, roles, UUID.randomUUID().toString(),
+            now / 1000, (now + validityMillis) / 1000);
+        return mint(signingKeyRing.getActiveKey(), spec);
     }
 
-    public String generateSecretKey() {
-        try {
-            KeyGenerator keyGenerator = KeyGenerator.getInstance("HmacSHA256");
-            Key secretKey = keyGenerator.generateKey();
-            System.out.println("Secret Key : " + secretKey.toString());
-            return Base64.getEncoder().encodeToString(secretKey.getEncoded());
-        } catch (NoSuchAlgorithmException ex) {
-            log.error("Error in generating token due to algo not found:{}", ex.getMessage(), ex);
-            throw new RuntimeException("Error generating secret key", ex);
+    String mint(SigningKeyRing.SigningKey signingKey, TokenMinter.Spec spec) {
+        if (fastMinting) {
+            String token = tokenMinter.mint(signingKey, spec);
+            if (token != null) {
+                return token;
+            }
         }
+        return mintWithJjwt(signingKey, spec);
     }
 
+    /**
+     * The reference format every token must have. The claims are kept in insertion order so the
+     * output is deterministic and the fast minter can reproduce it byte for byte.
+     */
+    String mintWithJjwt(SigningKeyRing.SigningKey signingKey, TokenMinter.Spec spec) {
+        Map<String, Object> claims = new LinkedHashMap<>();
 
-    // validating the token
-    private <T> T extractClaim(String token, Function<Claims, T> claimResolver) {
-        final Claims claims = extractAllClaims(token);
-        return claimResolver.apply(claims);
+        claims.put("username", spec.userName());
+        claims.put(VerifiedToken.TYPE_CLAIM, spec.type());
+        claims.put(VerifiedToken.FAMILY_CLAIM, spec.familyId());
+        if (spec.roles() != null) {
+            claims.put(VerifiedToken.ROLES_CLAIM, spec.roles());
+        }
+
+        return Jwts.builder().setHeaderParam(JwsHeader.KEY_ID, signingKey.keyId())
+            .setClaims(claims).setSubject(spec.userName())
+            .setId(spec.tokenId())
+            .setIssuedAt(new Date(spec.issuedAtSeconds() * 1000))
+            .setExpiration(new Date(spec.expiresAtSeconds() * 1000))
+            .signWith(signingKey.key(), SignatureAlgorithm.HS256).compact();
     }
 
-    public String extractUserName(String token) {
-        // extract the username from jwt token
-        return extractClaim(token, Claims::getSubject);
+    /**
+     * Mints sample tokens with both paths and only keeps the fast one when the output is identical
+     * and the existing parser accepts it.
+     */
+    private boolean fastMintingMatchesJjwt() {
+        SigningKeyRing.SigningKey signingKey = signingKeyRing.getActiveKey();
+        long now = System.currentTimeMillis() / 1000;
+        List<TokenMinter.Spec> samples = List.of(
+            new TokenMinter.Spec("user", VerifiedToken.ACCESS_TYPE, UUID.randomUUID().toString(), null,
+                UUID.randomUUID().toString(), now, now + ACCESS_TOKEN_EXPIRY_IN_MINUTES / 1000),
+            new TokenMinter.Spec("user.name@example.com", VerifiedToken.ACCESS_TYPE, UUID.randomUUID().toString(),
+                List.of("USER", "ADMIN"), UUID.randomUUID().toString(), now, now + ACCESS_TOKEN_EXPIRY_IN_MINUTES / 1000),
+            new TokenMinter.Spec("u", VerifiedToken.ACCESS_TYPE, "f", List.of(), "j", now,
+                now + ACCESS_TOKEN_EXPIRY_IN_MINUTES / 1000),
+            new TokenMinter.Spec("user", VerifiedToken.REFRESH_TYPE, UUID.randomUUID().toString(), null,
+                UUID.randomUUID().toString(), now, now + REFRESH_TOKEN_EXPIRY_IN_MINUTES / 1000));
+        for (TokenMinter.Spec sample : samples) {
+            String fast = tokenMinter.mint(signingKey, sample);
+            String reference = mintWithJjwt(signingKey, sample);
+            if (!reference.equals(fast)) {
+                // both are valid tokens signed with the live key, only the unsigned parts may be logged
+                logMintingMismatch(reference, fast);
+                return false;
+            }
+            try {
+                parser.parseClaimsJws(fast);
+            } catch (JwtException ex) {
+                log.warn("Fast token minting produced a token the parser rejects, falling back to jjwt", ex);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void logMintingMismatch(String reference, String fast) {
+        if (fast == null) {
+            log.warn("Fast token minting produced no token, falling back to jjwt");
+            return;
+        }
+        String[] expected = reference.split("\\.");
+        String[] actual = fast.split("\\.");
+        for (int segment = 0; segment < 2; segment++) {
+            if (segment >= actual.length || !expected[segment].equals(actual[segment])) {
+                log.warn("Fast token minting differs from jjwt in segment {}, falling back to jjwt: expected {} but got {}",
+                    segment, decodeSegment(expected[segment]),
+                    segment < actual.length ? decodeSegment(actual[segment]) : null);
+                return;
+            }
+        }
+        log.warn("Fast token minting differs from jjwt in the signature, falling back to jjwt");
     }
 
-    private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-            .setSigningKey(getKey())
-            .build().parseClaimsJws(token).getBody();
+    private static String decodeSegment(String segment) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(segment), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            return "<not base64url>";
+        }
     }
 
-    public boolean validateToken(String token, UserDetails userDetails) {
-        String username = extractUserName(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+    // validating the token
+
+    /**
+     * Parses the token and checks its signature and expiry a single time.
+     * Callers should keep the returned object instead of asking for individual claims again.
+     *
+     * @throws io.jsonwebtoken.JwtException if the token is malformed, tampered with or expired
+     */
+    public VerifiedToken verify(String token) {
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        return VerifiedToken.builder()
+            .token(token)
+            .id(claims.getId())
+            .familyId(claims.get(VerifiedToken.FAMILY_CLAIM, String.class))
+            .type(claims.get(VerifiedToken.TYPE_CLAIM, String.class))
+            .subject(claims.getSubject())
+            .issuedAt(claims.getIssuedAt())
+            .expiration(claims.getExpiration())
+            .claims(claims)
+            .build();
     }
 
-    private boolean isTokenExpired(String token) {
-        return expiryDate(token).before(new Date());
+    /**
+     * Like {@link #verify(String)} but reports a bad token through the result instead of an exception.
+     * Tokens that are oversized, malformed, not HS256 or already expired are rejected before any parsing
+     * or signature check, and tokens rejected recently are recognised by their digest. A token signed with a
+     * key this node doesn't know yet is rejected without being remembered.
+     */
+    public TokenVerification tryVerify(String token) {
+        if (token == null) {
+            return TokenVerification.rejected(Outcome.MALFORMED);
+        }
+        Outcome rejected = tokenPreValidator.check(token);
+        if (rejected != null) {
+            return TokenVerification.rejected(rejected);
+        }
+        try {
+            return TokenVerification.valid(verify(token));
+        } catch (UnknownSigningKeyException ex) {
+            return TokenVerification.rejected(Outcome.UNKNOWN_KEY);
+        } catch (ExpiredJwtException ex) {
+            rejected = Outcome.EXPIRED;
+        } catch (SignatureException ex) {
+            rejected = Outcome.BAD_SIGNATURE;
+        } catch (JwtException | IllegalArgumentException ex) {
+            rejected = Outcome.MALFORMED;
+        }
+        tokenPreValidator.reject(token, rejected);
+        return TokenVerification.rejected(rejected);
     }
 
-    private Date expiryDate(String token) {
-        return extractClaim(token, Claims::getExpiration);
+    public String extractUserName(String token) {
+        // extract the username from jwt token
+        return verify(token).getSubject();
+    }
+
+    public boolean validateToken(String token, UserDetails userDetails) {
+        return validateToken(verify(token), userDetails);
+    }
+
+    public boolean validateToken(VerifiedToken verifiedToken, UserDetails userDetails) {
+        return verifiedToken.belongsTo(userDetails.getUsername()) && !verifiedToken.isExpired();
     }
 
     // Give the refresh token
     public String generateRefreshToken(String username) {
+        return generateRefreshToken(username, UUID.randomUUID().toString());
+    }
 
-        // generating another token called refresh token setting the validity to 1 hour
-
-        Map<String, Object> claims = new HashMap<>();
+    private String generateRefreshToken(String username, String familyId) {
 
-        claims.put("username", username);
+        // generating another token called refresh token setting the validity to 1 hour
 
-        return Jwts.builder().setClaims(claims).setSubject(username)
-            .setIssuedAt(new Date(System.currentTimeMillis()))
-            .setExpiration(new Date(System.currentTimeMillis() + REFRESH_TOKEN_EXPIRY_IN_MINUTES))
-            .signWith(getKey(), SignatureAlgorithm.HS256).compact();
+        // the jti identifies this refresh token, it is revoked as soon as the token is used once
+        authMetrics.recordIssued(VerifiedToken.REFRESH_TYPE);
+        return mint(username, VerifiedToken.REFRESH_TYPE, familyId, null, REFRESH_TOKEN_EXPIRY_IN_MINUTES);
 
     }
 
     public boolean validateRefreshToken(String refreshToken, UserDetails userDetails) {
         return validateToken(refreshToken, userDetails);
     }
+
+    public boolean validateRefreshToken(VerifiedToken refreshToken, UserDetails userDetails) {
+        return validateToken(refreshToken, userDetails);
+    }
 }
@@ -0,0 +1,115 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.OrderVersion;
+import com.example.jwt.repo.OrderVersionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Versions the writes to customer_orders, globally and per customer, so the order listings can answer a
+ * poll with 304 Not Modified after an index lookup instead of querying the orders. Customers are
+ * hashed onto a fixed number of rows of order_versions to keep the table small, two customers sharing
+ * a row only see an extra full response.
+ * <p>
+ * A write sets the rows of its customers to the next value of order_version_seq, in one statement and a
+ * short transaction of its own after the orders were committed. Order inserts therefore never wait on
+ * each other's counters, and the highest version, the one of the whole listing, changes with every write
+ * without a shared row. Because the listings read the version before the orders, a reader may at worst
+ * see new orders under an old version and send one more full response, never old orders under a new one.
+ */
+@Component
+@Slf4j
+public class OrderChangeCounter {
+
+    static final int CUSTOMER_BUCKETS = 4096;
+
+    // concurrent writers may deadlock on overlapping buckets, the loser simply tries again
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final OrderVersionRepository orderVersionRepository;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public OrderChangeCounter(OrderVersionRepository orderVersionRepository, JdbcTemplate jdbcTemplate) {
+        this.orderVersionRepository = orderVersionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void createCounters() {
+        // starts above versions handed out before the sequence existed, so the highest version keeps growing
+        Long latest = orderVersionRepository.findLatestVersion();
+        jdbcTemplate.execute("create sequence if not exists order_version_seq start with "
+            + ((latest == null ? 0 : latest) + 1));
+
+        Set<Integer> existing = new HashSet<>(orderVersionRepository.findAllBuckets());
+        List<OrderVersion> missing = IntStream.range(0, CUSTOMER_BUCKETS)
+            .filter(bucket -> !existing.contains(bucket))
+            .mapToObj(bucket -> new OrderVersion(bucket, 0))
+            .toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        try {
+            orderVersionRepository.saveAll(missing);
+            log.info("created {} order version counters", missing.size());
+        } catch (DataIntegrityViolationException ex) {
+            // another node starting at the same time created them
+            log.info("order version counters were created concurrently by another node");
+        }
+    }
+
+    /**
+     * Must run after the transaction that wrote the orders committed, a failure is logged and
+     * only costs the pollers of these customers their next 304.
+     *
+     * @param customerKeys normalized customer names of the written orders
+     */
+    public void changed(Collection<String> customerKeys) {
+        Set<Integer> buckets = new TreeSet<>();
+        for (String customerKey : customerKeys) {
+            // orders without a customer only show up in the full listing, any bucket moves its version
+            buckets.add(customerKey == null ? 0 : bucket(customerKey));
+        }
+        if (buckets.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                orderVersionRepository.advance(buckets);
+                return;
+            } catch (TransientDataAccessException ex) {
+                if (attempt == MAX_ATTEMPTS) {
+                    log.warn("could not advance the versions of {} order buckets", buckets.size(), ex);
+                    return;
+                }
+            }
+        }
+    }
+
+    public String allOrdersVersion() {
+        Long version = orderVersionRepository.findLatestVersion();
+        return Long.toString(version == null ? 0 : version);
+    }
+
+    // the key's hash keeps versions of customers sharing a counter apart
+    public String customerVersion(String customerKey) {
+        Long version = orderVersionRepository.findVersion(bucket(customerKey));
+        return Integer.toHexString(customerKey.hashCode()) + "-" + (version == null ? 0 : version);
+    }
+
+    private static int bucket(String customerKey) {
+        return Math.floorMod(customerKey.hashCode(), CUSTOMER_BUCKETS);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.jwt.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory set of revoked ids (jti or family ids) checked on every request.
+ * A bloom filter answers "definitely not revoked" for almost every token without touching the map,
+ * only a bloom hit is confirmed against the exact map of id to expiry time.
+ * Reads are lock free, the rare writes and the periodic rebuild (which drops expired ids) are serialized.
+ */
+class RevokedTokenFilter {
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    private final int expectedEntries;
+
+    private final Object writeLock = new Object();
+
+    private volatile BloomFilter bloomFilter;
+
+    RevokedTokenFilter(int expectedEntries) {
+        this.expectedEntries = expectedEntries;
+        this.bloomFilter = new BloomFilter(expectedEntries);
+    }
+
+    boolean isRevoked(String id, long nowMillis) {
+        if (id == null || !bloomFilter.mightContain(id)) {
+            return false;
+        }
+        Long expiresAt = revoked.get(id);
+        return expiresAt != null && expiresAt > nowMillis;
+    }
+
+    /**
+     * @return false when the id was already revoked
+     */
+    boolean add(String id, long expiresAtMillis) {
+        synchronized (writeLock) {
+            Long previous = revoked.putIfAbsent(id, expiresAtMillis);
+            bloomFilter.put(id);
+            return previous == null;
+        }
+    }
+
+    /**
+     * Forgets expired ids. A bloom filter can't remove entries, so it is rebuilt from what is left.
+     */
+    void purgeExpired(long nowMillis) {
+        synchronized (writeLock) {
+            revoked.values().removeIf(expiresAt -> expiresAt <= nowMillis);
+            BloomFilter rebuilt = new BloomFilter(Math.max(expectedEntries, revoked.size() * 2));
+            revoked.keySet().forEach(rebuilt::put);
+            bloomFilter = rebuilt;
+        }
+    }
+
+    int size() {
+        return revoked.size();
+    }
+
+    /**
+     * Fixed size bloom filter with roughly 1% false positives at the expected number of entries.
+     */
+    private static final class BloomFilter {
+
+        // ln(2)^2, used by the standard formula for the optimal number of bits
+        private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+        private static final double FALSE_POSITIVE_RATE = 0.01;
+
+        private final AtomicLongArray bits;
+
+        private final long bitCount;
+
+        private final int hashCount;
+
+        BloomFilter(int expectedEntries) {
+            long optimalBits = (long) (-expectedEntries * Math.log(FALSE_POSITIVE_RATE) / LN2_SQUARED);
+            this.bitCount = Math.max(64, (optimalBits + 63) / 64 * 64);
+            this.bits = new AtomicLongArray((int) (bitCount / 64));
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedEntries * Math.log(2)));
+        }
+
+        void put(String id) {
+            long hash = hash(id);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+                long mask = 1L << bit;
+                bits.getAndAccumulate((int) (bit >>> 6), mask, (current, added) -> current | added);
+            }
+        }
+
+        boolean mightContain(String id) {
+            long hash = hash(id);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= hashCount; i++) {
+                long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 64 bit FNV-1a followed by the splitmix64 finalizer, two independent 32 bit halves are derived from it
+        private static long hash(String id) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b;
+                hash *= 0x100000001b3L;
+            }
+            hash ^= hash >>> 30;
+            hash *= 0xbf58476d1ce4e5b9L;
+            hash ^= hash >>> 27;
+            hash *= 0x94d049bb133111ebL;
+            hash ^= hash >>> 31;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.jwt.service;
+
+import io.jsonwebtoken.security.SignatureException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * HMAC keys used to sign and verify tokens, kept in a PKCS12 keystore so tokens stay valid across
+ * restarts and every node pointing at the same keystore accepts every other node's tokens.
+ * The alias of a key is its {@code kid}. Aliases start with the creation time, so the newest key
+ * is the active signing key and the older ones are only used to verify tokens signed before a rotation.
+ * The keys are held in an immutable lookup table that is swapped on reload, lookups never lock.
+ */
+@Component
+@Slf4j
+public class SigningKeyRing {
+
+    private static final DateTimeFormatter KID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private static final long UNKNOWN_KEY_RELOAD_INTERVAL_MILLIS = 1000;
+
+    private final Path keystoreFile;
+
+    private final char[] password;
+
+    private final int retainedKeys;
+
+    private final boolean rotationEnabled;
+
+    private volatile Keys keys;
+
+    private volatile FileTime loadedVersion;
+
+    private volatile long lastUnknownKeyReload;
+
+    public SigningKeyRing(@Value("${jwt.keys.keystore:jwt-keys.p12}") Path keystoreFile,
+        @Value("${jwt.keys.password:changeit}") String password,
+        @Value("${jwt.keys.retained:3}") int retainedKeys,
+        @Value("${jwt.keys.rotation.enabled:false}") boolean rotationEnabled) {
+        this.keystoreFile = keystoreFile;
+        this.password = password.toCharArray();
+        this.retainedKeys = Math.max(1, retainedKeys);
+        this.rotationEnabled = rotationEnabled;
+        if (Files.notExists(keystoreFile)) {
+            log.info("no jwt keystore at {}, creating one with a new signing key", keystoreFile);
+            rotate();
+        } else {
+            reload();
+        }
+    }
+
+    /**
+     * The current signing key together with its kid, read from one snapshot so the two always match.
+     */
+    public SigningKey getActiveKey() {
+        Keys current = keys;
+        return new SigningKey(current.activeKeyId, current.byId.get(current.activeKeyId));
+    }
+
+    /**
+     * The key a token with the given kid was signed with. An unknown kid may come from a key another node
+     * just rotated in, so the keystore is re-read once before the token is rejected.
+     *
+     * @throws SignatureException if the token has no kid
+     * @throws UnknownSigningKeyException if no such key exists, or the keystore couldn't be re-read
+     */
+    public SecretKey getVerificationKey(String keyId) {
+        if (keyId == null) {
+            throw new SignatureException("Token has no kid header");
+        }
+        SecretKey key = keys.byId.get(keyId);
+        // made-up kids must not make every request hit the file system, so this is throttled
+        long now = System.currentTimeMillis();
+        if (key == null && now - lastUnknownKeyReload > UNKNOWN_KEY_RELOAD_INTERVAL_MILLIS) {
+            lastUnknownKeyReload = now;
+            try {
+                reload();
+            } catch (IllegalStateException ex) {
+                // a keystore being replaced or unreadable must not turn a token check into a 500
+                log.warn("could not reload the jwt keystore while looking for kid {}", keyId, ex);
+            }
+            key = keys.byId.get(keyId);
+        }
+        if (key == null) {
+            throw new UnknownSigningKeyException("Unknown signing key " + keyId);
+        }
+        return key;
+    }
+
+    /**
+     * Adds a fresh signing key and drops the oldest ones beyond jwt.keys.retained.
+     * Only the node with jwt.keys.rotation.enabled rotates on the schedule, the others pick the new key
+     * up when they reload the keystore.
+     */
+    @Scheduled(fixedDelayString = "${jwt.keys.rotation.interval:P1D}",
+        initialDelayString = "${jwt.keys.rotation.interval:P1D}")
+    public void scheduledRotation() {
+        if (rotationEnabled) {
+            rotate();
+        }
+    }
+
+    public synchronized void rotate() {
+        try {
+            KeyStore keyStore = loadKeyStore();
+            String keyId = KID_FORMAT.format(ZonedDateTime.now(ZoneOffset.UTC)) + "-"
+                + UUID.randomUUID().toString().substring(0, 8);
+            keyStore.setEntry(keyId, new KeyStore.SecretKeyEntry(newKey()),
+                new KeyStore.PasswordProtection(password));
+
+            TreeSet<String> aliases = new TreeSet<>(Collections.list(keyStore.aliases()));
+            while (aliases.size() > retainedKeys) {
+                keyStore.deleteEntry(aliases.pollFirst());
+            }
+            store(keyStore);
+            log.info("rotated jwt signing key, active kid is now {}", keyId);
+        } catch (GeneralSecurityException | IOException ex) {
+            throw new IllegalStateException("Could not rotate the jwt signing key in " + keystoreFile, ex);
+        }
+        // force the reload even if the file system timestamp did not move within its resolution
+        loadedVersion = null;
+        reload();
+    }
+
+    /**
+     * Re-reads the keystore when the file changed since it was last loaded.
+     */
+    @Scheduled(fixedDelayString = "${jwt.keys.reload-interval:PT30S}")
+    public synchronized void reload() {
+        try {
+            FileTime version = Files.getLastModifiedTime(keystoreFile);
+            if (version.equals(loadedVersion)) {
+                return;
+            }
+            KeyStore keyStore = loadKeyStore();
+            Map<String, SecretKey> byId = new HashMap<>();
+            for (String alias : Collections.list(keyStore.aliases())) {
+                byId.put(alias, (SecretKey) keyStore.getKey(alias, password));
+            }
+            if (byId.isEmpty()) {
+                throw new IllegalStateException("jwt keystore " + keystoreFile + " has no keys");
+            }
+            keys = new Keys(new TreeSet<>(byId.keySet()).last(), Map.copyOf(byId));
+            loadedVersion = version;
+        } catch (GeneralSecurityException | IOException ex) {
+            throw new IllegalStateException("Could not load the jwt keystore " + keystoreFile, ex);
+        }
+    }
+
+    private KeyStore loadKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        if (Files.exists(keystoreFile)) {
+            try (InputStream in = Files.newInputStream(keystoreFile)) {
+                keyStore.load(in, password);
+            }
+        } else {
+            keyStore.load(null, password);
+        }
+        return keyStore;
+    }
+
+    // written to a temporary file first, so other nodes never read a half written keystore
+    private void store(KeyStore keyStore) throws GeneralSecurityException, IOException {
+        Path directory = keystoreFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, keystoreFile.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            keyStore.store(out, password);
+        }
+        Files.move(temporary, keystoreFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static SecretKey newKey() throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("HmacSHA256");
+        keyGenerator.init(256);
+        return keyGenerator.generateKey();
+    }
+
+    public record SigningKey(String keyId, SecretKey key) {
+    }
+
+    private record Keys(String activeKeyId, Map<String, SecretKey> byId) {
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.TokenIntrospection;
+import com.example.jwt.model.TokenVerification;
+import com.example.jwt.model.VerifiedToken;
+import com.example.jwt.service.VerifiedTokenCache.CachedAuthentication;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Checks batches of tokens for other services, with the same rules the JwtFilter applies to a bearer token:
+ * signature and expiry, revocation, and that the user still exists. Verification is HMAC work, so a batch
+ * is spread over a pool sized to the cores instead of the request's virtual thread checking one token
+ * after the other. Tokens the filter verified recently are answered from the {@link VerifiedTokenCache}.
+ */
+@Service
+@Slf4j
+public class TokenIntrospectionService {
+
+    private final JwtService jwtService;
+
+    private final TokenRevocationService tokenRevocationService;
+
+    private final UserService userService;
+
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    private final ForkJoinPool pool;
+
+    private final int maxBatchSize;
+
+    // smaller batches are checked on the calling thread, handing them to the pool costs more than it saves
+    private final int parallelThreshold;
+
+    private final DistributionSummary batchSizes;
+
+    public TokenIntrospectionService(JwtService jwtService, TokenRevocationService tokenRevocationService,
+        UserService userService, VerifiedTokenCache verifiedTokenCache, MeterRegistry meterRegistry,
+        @Value("${jwt.introspection.threads:0}") int threads,
+        @Value("${jwt.introspection.max-batch-size:1000}") int maxBatchSize,
+        @Value("${jwt.introspection.parallel-threshold:16}") int parallelThreshold) {
+        this.jwtService = jwtService;
+        this.tokenRevocationService = tokenRevocationService;
+        this.userService = userService;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        this.maxBatchSize = maxBatchSize;
+        this.parallelThreshold = parallelThreshold;
+        this.batchSizes = DistributionSummary.builder("auth.introspection.batch.size")
+            .description("tokens per introspection request")
+            .register(meterRegistry);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * One result per token, in the same order.
+     */
+    public List<TokenIntrospection> introspect(List<String> tokens) {
+        batchSizes.record(tokens.size());
+        if (tokens.size() < parallelThreshold) {
+            return tokens.stream().map(this::introspect).toList();
+        }
+        // a parallel stream started from inside the pool runs on the pool, not on the common one
+        return pool.submit(() -> IntStream.range(0, tokens.size()).parallel()
+            .mapToObj(index -> introspect(tokens.get(index)))
+            .toList()).join();
+    }
+
+    private TokenIntrospection introspect(String token) {
+        CachedAuthentication cached = token == null ? null : verifiedTokenCache.get(token);
+        if (cached != null) {
+            if (tokenRevocationService.isRevoked(cached.getTokenId(), cached.getFamilyId())) {
+                return inactive("REVOKED");
+            }
+            return TokenIntrospection.builder()
+                .active(true)
+                .outcome(TokenVerification.Outcome.VALID.name())
+                .subject(cached.getSubject())
+                .type(VerifiedToken.ACCESS_TYPE)
+                .roles(roles(cached.getAuthorities()))
+                .expiresAt(Instant.ofEpochMilli(cached.getExpiresAtMillis()))
+                .build();
+        }
+
+        TokenVerification verification = jwtService.tryVerify(token);
+        if (!verification.isValid()) {
+            return inactive(verification.getOutcome().name());
+        }
+        VerifiedToken verifiedToken = verification.getToken();
+        TokenIntrospection.TokenIntrospectionBuilder result = TokenIntrospection.builder()
+            .subject(verifiedToken.getSubject())
+            .type(verifiedToken.getType())
+            .expiresAt(verifiedToken.getExpiration() == null ? null : verifiedToken.getExpiration().toInstant());
+        if (tokenRevocationService.isRevoked(verifiedToken.getId(), verifiedToken.getFamilyId())) {
+            return result.active(false).outcome("REVOKED").build();
+        }
+        List<String> roles = verifiedToken.getRoles();
+        if (roles == null || !jwtService.isSelfContainedTokens()) {
+            try {
+                UserDetails userDetails = userService.loadUserByUsername(verifiedToken.getSubject());
+                roles = roles(userDetails.getAuthorities());
+                if (!verifiedToken.isRefreshToken()) {
+                    // gateways ask about the same tokens again and again, like the filter does
+                    verifiedTokenCache.put(verifiedToken, userDetails);
+                }
+            } catch (UsernameNotFoundException ex) {
+                return result.active(false).outcome("UNKNOWN_USER").build();
+            }
+        }
+        return result.active(true).outcome(TokenVerification.Outcome.VALID.name()).roles(roles).build();
+    }
+
+    private static TokenIntrospection inactive(String outcome) {
+        return TokenIntrospection.builder().active(false).outcome(outcome).build();
+    }
+
+    private static List<String> roles(Collection<? extends GrantedAuthority> authorities) {
+        return authorities.stream()
+            .map(GrantedAuthority::getAuthority)
+            .map(authority -> authority.startsWith("ROLE_") ? authority.substring(5) : authority)
+            .toList();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
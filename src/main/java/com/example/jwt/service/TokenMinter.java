@@ -0,0 +1,249 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.VerifiedToken;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes HS256 tokens directly into reusable byte buffers instead of going through the jjwt builder,
+ * which allocates a claims map, serializes an identical header through jackson and creates a new Mac
+ * for every token. The output is exactly what the jjwt builder in {@link JwtService} produces for the
+ * same claims, JwtService compares both at startup and only uses this minter if they match.
+ * <p>
+ * Strings that would need json escaping (quotes, backslashes, control or non ascii characters) are
+ * not handled here, {@link #mint} returns null for them and the caller falls back to jjwt.
+ */
+class TokenMinter {
+
+    private static final byte[] BASE64_URL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int SIGNATURE_LENGTH = 32;
+
+    // requests run on virtual threads, so thread locals would rarely be reused; buffers are pooled instead
+    private final BlockingQueue<Buffers> pool =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 4);
+
+    // base64url of {"kid":"...","alg":"HS256"}, one per key id
+    private final Map<String, byte[]> encodedHeaders = new ConcurrentHashMap<>();
+
+    /**
+     * Everything that goes into a token. {@code roles} is null when the token carries no roles claim.
+     */
+    record Spec(String userName, String type, String familyId, List<String> roles, String tokenId,
+                long issuedAtSeconds, long expiresAtSeconds) {
+    }
+
+    /**
+     * @return the signed token, or null if one of the strings needs escaping
+     */
+    String mint(SigningKeyRing.SigningKey signingKey, Spec spec) {
+        if (!plain(signingKey.keyId()) || !plain(spec.userName()) || !plain(spec.type())
+            || !plain(spec.familyId()) || !plain(spec.tokenId())
+            || (spec.roles() != null && !spec.roles().stream().allMatch(TokenMinter::plain))) {
+            return null;
+        }
+        Buffers buffers = pool.poll();
+        if (buffers == null) {
+            buffers = new Buffers();
+        }
+        try {
+            return buffers.mint(headerFor(signingKey.keyId()), signingKey.key(), spec);
+        } finally {
+            pool.offer(buffers);
+        }
+    }
+
+    private byte[] headerFor(String keyId) {
+        byte[] header = encodedHeaders.get(keyId);
+        if (header == null) {
+            if (encodedHeaders.size() > 16) {
+                // old keys are rotated out, don't keep their headers forever
+                encodedHeaders.clear();
+            }
+            byte[] json = ("{\"kid\":\"" + keyId + "\",\"alg\":\"HS256\"}").getBytes(StandardCharsets.US_ASCII);
+            byte[] encoded = new byte[encodedLength(json.length)];
+            encode(json, json.length, encoded, 0);
+            header = encoded;
+            encodedHeaders.put(keyId, header);
+        }
+        return header;
+    }
+
+    private static boolean plain(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int encodedLength(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    /**
+     * Unpadded base64url of {@code src[0, length)} written to {@code dst} at {@code offset}.
+     *
+     * @return the offset after the last written byte
+     */
+    private static int encode(byte[] src, int length, byte[] dst, int offset) {
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[offset++] = BASE64_URL[bits >>> 18];
+            dst[offset++] = BASE64_URL[(bits >>> 12) & 0x3f];
+            dst[offset++] = BASE64_URL[(bits >>> 6) & 0x3f];
+            dst[offset++] = BASE64_URL[bits & 0x3f];
+        }
+        int remaining = length - i;
+        if (remaining == 1) {
+            int bits = (src[i] & 0xff) << 16;
+            dst[offset++] = BASE64_URL[bits >>> 18];
+            dst[offset++] = BASE64_URL[(bits >>> 12) & 0x3f];
+        } else if (remaining == 2) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8;
+            dst[offset++] = BASE64_URL[bits >>> 18];
+            dst[offset++] = BASE64_URL[(bits >>> 12) & 0x3f];
+            dst[offset++] = BASE64_URL[(bits >>> 6) & 0x3f];
+        }
+        return offset;
+    }
+
+    /**
+     * Scratch space of one minting call: the claims json, the token being assembled and a Mac.
+     */
+    private static final class Buffers {
+
+        private final Mac mac;
+
+        private final byte[] signature = new byte[SIGNATURE_LENGTH];
+
+        private SecretKey macKey;
+
+        private byte[] json = new byte[512];
+
+        private int jsonLength;
+
+        private byte[] token = new byte[1024];
+
+        Buffers() {
+            try {
+                this.mac = Mac.getInstance(MAC_ALGORITHM);
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(MAC_ALGORITHM + " is not available", ex);
+            }
+        }
+
+        String mint(byte[] encodedHeader, SecretKey key, Spec spec) {
+            writeClaims(spec);
+
+            int tokenLength = encodedHeader.length + 1 + encodedLength(jsonLength) + 1
+                + encodedLength(SIGNATURE_LENGTH);
+            if (token.length < tokenLength) {
+                token = new byte[Math.max(tokenLength, token.length * 2)];
+            }
+            System.arraycopy(encodedHeader, 0, token, 0, encodedHeader.length);
+            int offset = encodedHeader.length;
+            token[offset++] = '.';
+            offset = encode(json, jsonLength, token, offset);
+
+            sign(key, offset);
+            token[offset++] = '.';
+            offset = encode(signature, SIGNATURE_LENGTH, token, offset);
+            return new String(token, 0, offset, StandardCharsets.US_ASCII);
+        }
+
+        private void sign(SecretKey key, int signedLength) {
+            try {
+                if (key != macKey) {
+                    mac.init(key);
+                    macKey = key;
+                }
+                mac.update(token, 0, signedLength);
+                mac.doFinal(signature, 0);
+            } catch (InvalidKeyException ex) {
+                throw new IllegalStateException("signing key can't be used for " + MAC_ALGORITHM, ex);
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("signing the token failed", ex);
+            }
+        }
+
+        // same claim order as the jjwt builder: username, typ, fid, roles, then sub, jti, iat, exp
+        private void writeClaims(Spec spec) {
+            jsonLength = 0;
+            append("{\"username\":\"").append(spec.userName())
+                .append("\",\"").append(VerifiedToken.TYPE_CLAIM).append("\":\"").append(spec.type())
+                .append("\",\"").append(VerifiedToken.FAMILY_CLAIM).append("\":\"").append(spec.familyId())
+                .append("\"");
+            if (spec.roles() != null) {
+                append(",\"").append(VerifiedToken.ROLES_CLAIM).append("\":[");
+                for (int i = 0; i < spec.roles().size(); i++) {
+                    append(i == 0 ? "\"" : ",\"").append(spec.roles().get(i)).append("\"");
+                }
+                append("]");
+            }
+            append(",\"sub\":\"").append(spec.userName())
+                .append("\",\"jti\":\"").append(spec.tokenId())
+                .append("\",\"iat\":").append(spec.issuedAtSeconds())
+                .append(",\"exp\":").append(spec.expiresAtSeconds())
+                .append("}");
+        }
+
+        // callers only pass strings that passed plain(), so every char is a single ascii byte
+        private Buffers append(String value) {
+            ensureCapacity(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                json[jsonLength++] = (byte) value.charAt(i);
+            }
+            return this;
+        }
+
+        private Buffers append(long value) {
+            ensureCapacity(20);
+            if (value == 0) {
+                json[jsonLength++] = '0';
+                return this;
+            }
+            if (value < 0) {
+                json[jsonLength++] = '-';
+                value = -value;
+            }
+            int start = jsonLength;
+            while (value > 0) {
+                json[jsonLength++] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            for (int left = start, right = jsonLength - 1; left < right; left++, right--) {
+                byte digit = json[left];
+                json[left] = json[right];
+                json[right] = digit;
+            }
+            return this;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (jsonLength + extra > json.length) {
+                byte[] grown = new byte[Math.max(jsonLength + extra, json.length * 2)];
+                System.arraycopy(json, 0, grown, 0, jsonLength);
+                json = grown;
+            }
+        }
+    }
+}
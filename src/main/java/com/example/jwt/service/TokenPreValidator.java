@@ -0,0 +1,149 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.TokenVerification.Outcome;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Cheap checks that run before a token is handed to the jwt parser: size, shape, the header's alg and
+ * the (not yet verified) exp claim. Tokens that fail here or later in verification are remembered by
+ * digest for a short while, so a client repeating the same bad token is turned away without any parsing.
+ */
+@Component
+public class TokenPreValidator {
+
+    private static final String ALGORITHM = "HS256";
+
+    private final int maxTokenLength;
+
+    private final Cache<String, Outcome> rejectedTokens;
+
+    public TokenPreValidator(@Value("${jwt.pre-validation.max-token-length:4096}") int maxTokenLength,
+        @Value("${jwt.rejected-token-cache.maximum-size:10000}") long rejectedCacheSize,
+        @Value("${jwt.rejected-token-cache.ttl:PT1M}") Duration rejectedCacheTtl) {
+        this.maxTokenLength = maxTokenLength;
+        this.rejectedTokens = Caffeine.newBuilder()
+            .maximumSize(rejectedCacheSize)
+            .expireAfterWrite(rejectedCacheTtl)
+            .build();
+    }
+
+    /**
+     * @return why the token can't be valid, or null when it is worth verifying its signature
+     */
+    public Outcome check(String token) {
+        if (token.length() > maxTokenLength) {
+            return Outcome.TOO_LARGE;
+        }
+        int firstDot = -1;
+        int secondDot = -1;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c == '.') {
+                if (firstDot < 0) {
+                    firstDot = i;
+                } else if (secondDot < 0) {
+                    secondDot = i;
+                } else {
+                    return Outcome.MALFORMED;
+                }
+            } else if (!isBase64Url(c)) {
+                return Outcome.MALFORMED;
+            }
+        }
+        if (firstDot <= 0 || secondDot <= firstDot + 1 || secondDot == token.length() - 1
+            || !decodable(firstDot) || !decodable(secondDot - firstDot - 1)) {
+            return Outcome.MALFORMED;
+        }
+
+        Outcome remembered = rejectedTokens.getIfPresent(VerifiedTokenCache.digest(token));
+        if (remembered != null) {
+            return remembered;
+        }
+
+        String header = decode(token, 0, firstDot);
+        if (!ALGORITHM.equals(stringValue(header, "alg"))) {
+            return Outcome.UNSUPPORTED_ALGORITHM;
+        }
+        long expiresAtSeconds = numberValue(decode(token, firstDot + 1, secondDot), "exp");
+        if (expiresAtSeconds >= 0 && expiresAtSeconds * 1000 <= System.currentTimeMillis()) {
+            return Outcome.EXPIRED;
+        }
+        return null;
+    }
+
+    /**
+     * Remembers a token that failed verification, only called for tokens that passed {@link #check(String)}.
+     */
+    public void reject(String token, Outcome outcome) {
+        rejectedTokens.put(VerifiedTokenCache.digest(token), outcome);
+    }
+
+    private static boolean isBase64Url(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    // unpadded base64 can't end with a single leftover character
+    private static boolean decodable(int segmentLength) {
+        return segmentLength % 4 != 1;
+    }
+
+    private static String decode(String token, int from, int to) {
+        byte[] json = Base64.getUrlDecoder().decode(token.substring(from, to));
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads {@code "name":"value"} from flat json without a json parser, null if absent or not a string.
+     */
+    private static String stringValue(String json, String name) {
+        int index = valueStart(json, name);
+        if (index < 0 || index >= json.length() || json.charAt(index) != '"') {
+            return null;
+        }
+        int end = json.indexOf('"', index + 1);
+        return end < 0 ? null : json.substring(index + 1, end);
+    }
+
+    /**
+     * Reads {@code "name":123} from flat json without a json parser, -1 if absent or not a number.
+     */
+    private static long numberValue(String json, String name) {
+        int index = valueStart(json, name);
+        if (index < 0) {
+            return -1;
+        }
+        long value = 0;
+        int digits = 0;
+        while (index < json.length() && Character.isDigit(json.charAt(index)) && digits < 18) {
+            value = value * 10 + (json.charAt(index++) - '0');
+            digits++;
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    private static int valueStart(String json, String name) {
+        int index = json.indexOf('"' + name + '"');
+        if (index < 0) {
+            return -1;
+        }
+        index += name.length() + 2;
+        while (index < json.length() && Character.isWhitespace(json.charAt(index))) {
+            index++;
+        }
+        if (index >= json.length() || json.charAt(index) != ':') {
+            return -1;
+        }
+        index++;
+        while (index < json.length() && Character.isWhitespace(json.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.RevokedToken;
+import com.example.jwt.model.VerifiedToken;
+import com.example.jwt.repo.RevokedTokenRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Keeps track of revoked refresh tokens and token families.
+ * Revocations are stored in the revoked_tokens table and mirrored in memory, the JwtFilter only ever
+ * asks the in-memory {@link RevokedTokenFilter}. The table is loaded at startup and polled for
+ * revocations made by other nodes, entries are dropped once the tokens they cover have expired.
+ */
+@Service
+@Slf4j
+public class TokenRevocationService {
+
+    private final RevokedTokenRepository revokedTokenRepository;
+
+    private final JwtService jwtService;
+
+    private final RevokedTokenFilter revokedTokenFilter;
+
+    private final Duration syncOverlap;
+
+    private volatile Instant lastSync = Instant.EPOCH;
+
+    public TokenRevocationService(RevokedTokenRepository revokedTokenRepository, JwtService jwtService,
+        @Value("${jwt.revocation.expected-entries:100000}") int expectedEntries,
+        @Value("${jwt.revocation.sync-interval:PT10S}") Duration syncInterval) {
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.jwtService = jwtService;
+        this.revokedTokenFilter = new RevokedTokenFilter(expectedEntries);
+        // rows committed by other nodes may carry a slightly older timestamp than our last poll
+        this.syncOverlap = syncInterval;
+    }
+
+    @PostConstruct
+    public void loadRevocations() {
+        Instant now = Instant.now();
+        List<RevokedToken> revocations = revokedTokenRepository.findByExpiresAtAfter(now);
+        revocations.forEach(this::remember);
+        lastSync = now;
+        log.info("loaded {} token revocations", revocations.size());
+    }
+
+    /**
+     * Called for every authenticated request, never touches the database.
+     */
+    public boolean isRevoked(String tokenId, String familyId) {
+        long now = System.currentTimeMillis();
+        return revokedTokenFilter.isRevoked(tokenId, now) || revokedTokenFilter.isRevoked(familyId, now);
+    }
+
+    /**
+     * Marks the refresh token as used. Returns false if the token (or its family) was revoked before,
+     * in which case a used refresh token was presented again and its whole family is revoked.
+     */
+    public boolean rotate(VerifiedToken refreshToken) {
+        if (isRevoked(null, refreshToken.getFamilyId())) {
+            return false;
+        }
+        RevokedToken revocation = RevokedToken.builder()
+            .id(refreshToken.getId())
+            .kind(RevokedToken.Kind.TOKEN)
+            .userName(refreshToken.getSubject())
+            .revokedAt(Instant.now())
+            .expiresAt(refreshToken.getExpiration().toInstant())
+            .build();
+        if (!store(revocation)) {
+            log.warn("refresh token reuse detected for user {}, revoking the token family", refreshToken.getSubject());
+            revokeFamily(refreshToken.getFamilyId(), refreshToken.getSubject());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Revokes every access and refresh token of a login.
+     */
+    public void revokeFamily(String familyId, String userName) {
+        if (familyId == null) {
+            return;
+        }
+        Instant now = Instant.now();
+        // no token of the family can outlive a refresh token issued right now
+        store(RevokedToken.builder()
+            .id(familyId)
+            .kind(RevokedToken.Kind.FAMILY)
+            .userName(userName)
+            .revokedAt(now)
+            .expiresAt(now.plusMillis(jwtService.getRefreshTokenValidityMillis()))
+            .build());
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.revocation.sync-interval:PT10S}",
+        initialDelayString = "${jwt.revocation.sync-interval:PT10S}")
+    public void syncRevocations() {
+        Instant now = Instant.now();
+        revokedTokenRepository.findByRevokedAtAfterAndExpiresAtAfter(lastSync.minus(syncOverlap), now)
+            .forEach(this::remember);
+        lastSync = now;
+        revokedTokenFilter.purgeExpired(now.toEpochMilli());
+        revokedTokenRepository.deleteExpired(now);
+    }
+
+    public int size() {
+        return revokedTokenFilter.size();
+    }
+
+    /**
+     * Stores the revocation in the table and, once it is stored, in memory. Any other database error
+     * leaves memory untouched, so a retry of the same refresh isn't mistaken for token reuse.
+     *
+     * @return false if the id was already revoked, here or on another node
+     */
+    private boolean store(RevokedToken revocation) {
+        if (revokedTokenFilter.isRevoked(revocation.getId(), System.currentTimeMillis())) {
+            return false;
+        }
+        try {
+            revokedTokenRepository.saveAndFlush(revocation);
+        } catch (DataIntegrityViolationException ex) {
+            // revoked first by another node, or by a concurrent request on this one
+            remember(revocation);
+            return false;
+        }
+        remember(revocation);
+        return true;
+    }
+
+    private boolean remember(RevokedToken revocation) {
+        return revokedTokenFilter.add(revocation.getId(), revocation.getExpiresAt().toEpochMilli());
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.jwt.service;
+
+import io.jsonwebtoken.JwtException;
+
+/**
+ * The token's kid is not (or not yet) in the keystore. Unlike a bad signature this can change with the
+ * next keystore reload, so tokens rejected for it are not remembered as bad.
+ */
+public class UnknownSigningKeyException extends JwtException {
+
+    public UnknownSigningKeyException(String message) {
+        super(message);
+    }
+}
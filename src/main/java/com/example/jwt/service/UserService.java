@@ -2,43 +2,128 @@ package com.example.jwt.service;
 
 import com.example.jwt.config.PasswordEncoder;
 import com.example.jwt.model.User;
+import com.example.jwt.model.UserPage;
 import com.example.jwt.model.UserPrincipal;
+import com.example.jwt.model.UserSummary;
 import com.example.jwt.repo.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 
 @Service
-@RequiredArgsConstructor
-public class UserService implements UserDetailsService {
+public class UserService implements UserDetailsService, UserDetailsPasswordService {
 
     private final UserRepository userRepository;
 
     private final PasswordEncoder passwordEncoder;
 
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    // every authenticated request needs the principal, so keep recently used ones out of the database
+    private final Cache<String, UserPrincipal> principalCache;
+
+    private final int maxPageSize;
+
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder,
+        VerifiedTokenCache verifiedTokenCache, MeterRegistry meterRegistry,
+        @Value("${jwt.user-cache.maximum-size:10000}") long maximumSize,
+        @Value("${jwt.user-cache.ttl:PT5M}") Duration timeToLive,
+        @Value("${users.page.max-size:500}") int maxPageSize) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.principalCache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, principalCache, "jwt.principals");
+        this.maxPageSize = maxPageSize;
+    }
+
     public User addUser(User user) {
-        passwordEncoder.setPasswordStrength(12);
         user.setPassword(passwordEncoder.encode(user.getPassword()));
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        evictUser(saved.getUserName());
+        return saved;
+    }
+
+    /**
+     * Called by spring security after a successful login when the stored hash used an outdated bcrypt cost.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userRepository.findByUserName(userDetails.getUsername());
+        if (Objects.isNull(user)) {
+            return userDetails;
+        }
+        user.setPassword(newPassword);
+        User saved = userRepository.save(user);
+        evictUser(saved.getUserName());
+        return new UserPrincipal(saved);
+    }
+
+    /**
+     * Forgets the cached principal and every cached token of the user, so the next request
+     * sees the current roles from the database.
+     */
+    public void evictUser(String userName) {
+        if (userName == null) {
+            return;
+        }
+        principalCache.invalidate(userName);
+        verifiedTokenCache.evictUser(userName);
     }
 
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    /**
+     * Returns the users with an id greater than {@code afterId}. Each page costs two queries,
+     * one for the ids and one fetch join for the users with their roles, however many users there are.
+     */
+    public UserPage getUsers(Integer afterId, int size) {
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+        // one extra id tells us whether there is a next page without a count query
+        List<Integer> ids = userRepository.findIdsAfter(afterId == null ? 0 : afterId, Limit.of(pageSize + 1));
+        Integer nextCursor = null;
+        if (ids.size() > pageSize) {
+            ids = ids.subList(0, pageSize);
+            nextCursor = ids.get(pageSize - 1);
+        }
+        if (ids.isEmpty()) {
+            return new UserPage(List.of(), null);
+        }
+        List<UserSummary> users = userRepository.findAllWithRolesByIdIn(ids).stream()
+            .map(UserSummary::from)
+            .toList();
+        return new UserPage(users, nextCursor);
     }
 
     @Override
     public @NonNull UserDetails loadUserByUsername(@NonNull String username)
         throws UsernameNotFoundException {
+        UserPrincipal cached = principalCache.getIfPresent(username);
+        if (cached != null) {
+            return cached;
+        }
         User user = userRepository.findByUserName(username);
         if (Objects.isNull(user)) {
             throw new UsernameNotFoundException("User not found with username: " + username);
-        } else
-            return new UserPrincipal(user);
+        } else {
+            UserPrincipal userPrincipal = new UserPrincipal(user);
+            principalCache.put(username, userPrincipal);
+            return userPrincipal;
+        }
     }
 }
@@ -0,0 +1,142 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.VerifiedToken;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers tokens that already passed signature verification so that the same bearer token sent
+ * again within its lifetime does not go through parsing and HMAC checking a second time.
+ * Entries are keyed by a SHA-256 digest of the token (the raw token is never kept as a key),
+ * live until the token's own expiry and are evicted by size once the cache is full.
+ * A maximum size of 0 turns the cache off, every request then verifies its token.
+ */
+@Component
+public class VerifiedTokenCache {
+
+    // null when the cache is turned off
+    private final Cache<String, CachedAuthentication> cache;
+
+    public VerifiedTokenCache(MeterRegistry meterRegistry,
+        @Value("${jwt.token-cache.maximum-size:10000}") long maximumSize) {
+        if (maximumSize <= 0) {
+            this.cache = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new UntilTokenExpiry())
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt.verified-tokens");
+    }
+
+    public CachedAuthentication get(String token) {
+        if (cache == null) {
+            return null;
+        }
+        CachedAuthentication cached = cache.getIfPresent(digest(token));
+        // expiry is enforced lazily by caffeine, so double check before trusting the entry
+        if (cached != null && cached.getExpiresAtMillis() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return cached;
+    }
+
+    public void put(VerifiedToken verifiedToken, UserDetails userDetails) {
+        if (cache == null || verifiedToken.getExpiration() == null) {
+            return;
+        }
+        cache.put(digest(verifiedToken.getToken()),
+            new CachedAuthentication(verifiedToken.getSubject(), verifiedToken.getId(),
+                verifiedToken.getFamilyId(), userDetails,
+                List.copyOf(userDetails.getAuthorities()), verifiedToken.getExpiration().getTime()));
+    }
+
+    /**
+     * Drops every cached token of the given user, e.g. after the user's roles were changed.
+     */
+    public void evictUser(String userName) {
+        if (cache == null) {
+            return;
+        }
+        cache.asMap().values().removeIf(cached -> cached.getSubject().equals(userName));
+    }
+
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    public CacheStats stats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    public long size() {
+        return cache == null ? 0 : cache.estimatedSize();
+    }
+
+    static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM ships SHA-256, so this can only happen on a broken runtime
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    @lombok.Value
+    public static class CachedAuthentication {
+
+        String subject;
+
+        String tokenId;
+
+        String familyId;
+
+        UserDetails principal;
+
+        Collection<? extends GrantedAuthority> authorities;
+
+        long expiresAtMillis;
+    }
+
+    private static class UntilTokenExpiry implements Expiry<String, CachedAuthentication> {
+
+        @Override
+        public long expireAfterCreate(String key, CachedAuthentication value, long currentTime) {
+            long remainingMillis = value.getExpiresAtMillis() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(remainingMillis, 0));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedAuthentication value, long currentTime,
+            long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedAuthentication value, long currentTime,
+            long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
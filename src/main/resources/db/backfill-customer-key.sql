@@ -0,0 +1,7 @@
+-- Fills customer_orders.customer_key for rows written before the column existed.
+-- Runs on every startup after hibernate updated the schema, rows that already have a key are left alone
+-- and the (customer_key, id) index finds the remaining null keys without scanning the table.
+update customer_orders
+set customer_key = lower(trim(customer_name))
+where customer_key is null
+  and customer_name is not null;
@@ -0,0 +1,6 @@
+-- Fills customer_orders.updated_at for rows written before the column existed.
+-- Runs on every startup after hibernate updated the schema. Once every row has a timestamp the
+-- idx_customer_orders_updated_at index (btree keeps nulls) finds nothing and the update is a no-op.
+-- Historical rows get the time of the first start on purpose, their real write time is unknown: the first
+-- export with modifiedSince after the deploy returns the whole table, so incremental consumers re-sync once.
+update customer_orders set updated_at = now() where updated_at is null;
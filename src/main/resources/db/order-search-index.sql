@@ -0,0 +1,7 @@
+-- Search document of GET /orders/search: product name words weigh more than delivery address words.
+-- The column is generated, so postgres keeps it and its GIN index current on every insert and update.
+-- Adding it rewrites customer_orders once, on the first start after this script was added.
+alter table customer_orders add column if not exists search_vector tsvector
+    generated always as (setweight(to_tsvector('simple', coalesce(product_name, '')), 'A')
+        || setweight(to_tsvector('simple', coalesce(delivery_address, '')), 'B')) stored;
+create index if not exists idx_customer_orders_search_vector on customer_orders using gin (search_vector);
@@ -0,0 +1,108 @@
+package com.example.jwt.filters;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void retryAfterIsRoundedUpToWholeSeconds() {
+        assertEquals(1, RateLimiter.retryAfterSeconds(1));
+        assertEquals(1, RateLimiter.retryAfterSeconds(TimeUnit.SECONDS.toNanos(1) - 1));
+        assertEquals(1, RateLimiter.retryAfterSeconds(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(2, RateLimiter.retryAfterSeconds(TimeUnit.SECONDS.toNanos(1) + 1));
+        assertEquals(60, RateLimiter.retryAfterSeconds(TimeUnit.MINUTES.toNanos(1)));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RateLimiter.reject(response, TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(429, response.getStatus());
+        assertEquals("2", response.getHeader(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void rejectsRulesWithoutARealLimit() {
+        // 2000 permits per microsecond would be one token every 0 ns
+        assertThrows(IllegalArgumentException.class,
+            () -> RateLimiter.Rule.parse("/x=2000/PT0.000001S", 10, meterRegistry));
+        assertThrows(IllegalArgumentException.class,
+            () -> RateLimiter.Rule.parse("/x=2000000000/PT1S", 10, meterRegistry));
+        assertThrows(IllegalArgumentException.class,
+            () -> RateLimiter.Rule.parse("/x=0/PT1S", 10, meterRegistry));
+        assertThrows(IllegalArgumentException.class,
+            () -> RateLimiter.Rule.parse("/x=1/PT0S", 10, meterRegistry));
+        assertThrows(IllegalArgumentException.class,
+            () -> RateLimiter.Rule.parse("/x", 10, meterRegistry));
+
+        // exactly one nanosecond per token is still a limit
+        RateLimiter.Rule.parse("/x=1000/PT0.000001S", 10, meterRegistry);
+    }
+
+    @Test
+    void chargesTheFirstMatchingRulePerClient() {
+        RateLimiter rateLimiter = new RateLimiter(meterRegistry, true,
+            List.of("POST /user/login=3/PT1H", "/**=1000/PT1H"), 100);
+        MockHttpServletRequest login = request("POST", "/user/login", "10.0.0.1");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, rateLimiter.acquire(login, RateLimiter.ipKey(login), 1));
+        }
+        long wait = rateLimiter.acquire(login, RateLimiter.ipKey(login), 1);
+        assertTrue(wait > TimeUnit.MINUTES.toNanos(19) && wait <= TimeUnit.MINUTES.toNanos(20), "waits " + wait);
+        assertTrue(rateLimiter.waitNanos(login, RateLimiter.ipKey(login)) > 0);
+        assertEquals(2, meterRegistry.get("rate-limit.rejected").tag("rule", "POST /user/login").counter().count());
+
+        // other clients, methods and paths have their own buckets
+        MockHttpServletRequest otherClient = request("POST", "/user/login", "10.0.0.2");
+        assertEquals(0, rateLimiter.waitNanos(otherClient, RateLimiter.ipKey(otherClient)));
+        assertEquals(0, rateLimiter.acquire(otherClient, RateLimiter.ipKey(otherClient), 1));
+        MockHttpServletRequest get = request("GET", "/user/login", "10.0.0.1");
+        assertEquals(0, rateLimiter.acquire(get, RateLimiter.ipKey(get), 1));
+    }
+
+    @Test
+    void chargesSeveralPermitsAtOnce() {
+        RateLimiter rateLimiter = new RateLimiter(meterRegistry, true, List.of("/token/introspect=50/PT1H"), 100);
+        MockHttpServletRequest request = request("POST", "/token/introspect", "10.0.0.1");
+        String client = RateLimiter.ipKey(request);
+
+        assertEquals(0, rateLimiter.acquire(request, client, 40));
+        assertTrue(rateLimiter.acquire(request, client, 11) > 0);
+        assertEquals(0, rateLimiter.acquire(request, client, 10));
+        assertEquals(0, rateLimiter.acquire(request, client, 0));
+        assertTrue(rateLimiter.acquire(request, client, 1) > 0);
+    }
+
+    @Test
+    void passesEverythingWhenDisabledOrUnmatched() {
+        RateLimiter disabled = new RateLimiter(meterRegistry, false, List.of("/**=1/PT1H"), 100);
+        MockHttpServletRequest request = request("GET", "/orders", "10.0.0.1");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, disabled.acquire(request, RateLimiter.ipKey(request), 1));
+        }
+
+        RateLimiter limited = new RateLimiter(new SimpleMeterRegistry(), true, List.of("/orders/**=1/PT1H"), 100);
+        MockHttpServletRequest other = request("GET", "/user/me", "10.0.0.1");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limited.acquire(other, RateLimiter.ipKey(other), 1));
+        }
+    }
+
+    private static MockHttpServletRequest request(String method, String uri, String remoteAddress) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr(remoteAddress);
+        return request;
+    }
+}
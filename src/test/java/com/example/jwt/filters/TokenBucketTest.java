@@ -0,0 +1,70 @@
+package com.example.jwt.filters;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketTest {
+
+    // 5 permits per second
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static final long TOLERANCE = 4 * INTERVAL;
+
+    @Test
+    void letsTheBurstThroughThenWaitsOneInterval() {
+        long start = 1_000_000_000L;
+        TokenBucket bucket = new TokenBucket(start);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 1), "request " + i);
+        }
+        assertEquals(INTERVAL, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 1));
+        // a rejected request takes nothing
+        assertEquals(INTERVAL, bucket.waitNanos(start, TOLERANCE));
+
+        assertEquals(1, bucket.tryAcquire(start + INTERVAL - 1, INTERVAL, TOLERANCE, 1));
+        assertEquals(0, bucket.tryAcquire(start + INTERVAL, INTERVAL, TOLERANCE, 1));
+        assertEquals(INTERVAL, bucket.tryAcquire(start + INTERVAL, INTERVAL, TOLERANCE, 1));
+    }
+
+    @Test
+    void refillsToTheBurstSizeAndNoFurther() {
+        long start = 0;
+        TokenBucket bucket = new TokenBucket(start);
+        long later = start + TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(later, INTERVAL, TOLERANCE, 1));
+        }
+        assertEquals(INTERVAL, bucket.tryAcquire(later, INTERVAL, TOLERANCE, 1));
+    }
+
+    @Test
+    void takesSeveralPermitsAtOnceOrNone() {
+        long start = 0;
+        TokenBucket bucket = new TokenBucket(start);
+        assertEquals(0, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 3));
+        // 2 tokens left, 3 more need one interval
+        assertEquals(INTERVAL, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 3));
+        assertEquals(0, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 2));
+        assertEquals(INTERVAL, bucket.waitNanos(start, TOLERANCE));
+
+        // more than the burst size never fits into a full bucket
+        TokenBucket full = new TokenBucket(start);
+        assertEquals(INTERVAL, full.tryAcquire(start, INTERVAL, TOLERANCE, 6));
+        assertEquals(0, full.tryAcquire(start, INTERVAL, TOLERANCE, 5));
+    }
+
+    @Test
+    void survivesNanoTimeOverflow() {
+        long start = Long.MAX_VALUE - INTERVAL;
+        TokenBucket bucket = new TokenBucket(start);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 1));
+        }
+        assertEquals(INTERVAL, bucket.tryAcquire(start, INTERVAL, TOLERANCE, 1));
+        assertEquals(0, bucket.tryAcquire(start + INTERVAL + INTERVAL, INTERVAL, TOLERANCE, 2));
+        assertEquals(INTERVAL, bucket.tryAcquire(start + 2 * INTERVAL, INTERVAL, TOLERANCE, 1));
+    }
+}
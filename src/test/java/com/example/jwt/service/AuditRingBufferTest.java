@@ -0,0 +1,124 @@
+package com.example.jwt.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new AuditRingBuffer<>(1).capacity());
+        assertEquals(2, new AuditRingBuffer<>(2).capacity());
+        assertEquals(8, new AuditRingBuffer<>(5).capacity());
+        assertEquals(8, new AuditRingBuffer<>(8).capacity());
+        assertEquals(16, new AuditRingBuffer<>(9).capacity());
+    }
+
+    @Test
+    void reportsFullWhenFull() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(8));
+        assertEquals(8, buffer.size());
+
+        // one poll frees exactly one slot
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(8));
+        assertFalse(buffer.offer(9));
+    }
+
+    @Test
+    void keepsOrderAcrossLaps() {
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(4);
+        int next = 0;
+        int expected = 0;
+        for (int lap = 0; lap < 100; lap++) {
+            while (buffer.offer(next)) {
+                next++;
+            }
+            List<Integer> drained = new ArrayList<>();
+            assertEquals(3, buffer.drainTo(drained, 3));
+            for (Integer element : drained) {
+                assertEquals(expected++, element);
+            }
+        }
+        while (buffer.size() > 0) {
+            assertEquals(expected++, buffer.poll());
+        }
+        assertEquals(next, expected);
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void losslessUnderConcurrentOfferAndPoll() throws Exception {
+        int producers = 4;
+        int consumers = 2;
+        int perProducer = 50_000;
+        int total = producers * perProducer;
+        AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(64);
+        AtomicIntegerArray received = new AtomicIntegerArray(total);
+        AtomicInteger receivedCount = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int first = p * perProducer;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < first + perProducer; i++) {
+                        while (!buffer.offer(i)) {
+                            Thread.yield();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int c = 0; c < consumers; c++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    while (receivedCount.get() < total) {
+                        Integer element = buffer.poll();
+                        if (element == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        received.incrementAndGet(element);
+                        receivedCount.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(total, receivedCount.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals(1, received.get(i), "element " + i);
+        }
+        assertEquals(0, buffer.size());
+        assertNull(buffer.poll());
+    }
+}
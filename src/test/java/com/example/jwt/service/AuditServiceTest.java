@@ -0,0 +1,83 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.AuditEvent;
+import com.example.jwt.repo.AuditEventJdbcRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class AuditServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final AuditEventJdbcRepository repository = mock(AuditEventJdbcRepository.class);
+
+    @Test
+    void eventsRecordedAfterCloseGoToTheSpool() throws Exception {
+        AuditService auditService = auditService(Duration.ofSeconds(10));
+        auditService.startWriter();
+        auditService.record(AuditEvent.Type.LOGIN, "before", "family");
+        auditService.close();
+        verify(repository, times(1)).insertBatch(any());
+
+        auditService.record(AuditEvent.Type.LOGIN, "after", "family");
+        List<String> spooled = Files.readAllLines(spoolFile());
+        assertEquals(1, spooled.size());
+        assertTrue(spooled.get(0).contains("\"after\""), spooled.get(0));
+    }
+
+    @Test
+    void stuckWriterIsStoppedBeforeTheFinalDrain() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            return null;
+        }).when(repository).insertBatch(any());
+
+        AuditService auditService = auditService(Duration.ofMillis(200));
+        auditService.startWriter();
+        auditService.record(AuditEvent.Type.LOGIN, "first", "family");
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        auditService.record(AuditEvent.Type.LOGIN, "second", "family");
+        auditService.record(AuditEvent.Type.LOGIN, "third", "family");
+
+        auditService.close();
+        assertEquals(2, Files.readAllLines(spoolFile()).size());
+
+        // once its database call returns the writer must not touch the buffer or the database again
+        auditService.record(AuditEvent.Type.LOGIN, "fourth", "family");
+        release.countDown();
+        Thread.sleep(200);
+        verify(repository, times(1)).insertBatch(any());
+        assertEquals(3, Files.readAllLines(spoolFile()).size());
+    }
+
+    private AuditService auditService(Duration shutdownTimeout) {
+        return new AuditService(repository, JsonMapper.builder().build(), new SimpleMeterRegistry(), 64, 1,
+            Duration.ofMillis(10), AuditService.Backpressure.BLOCK, Duration.ofMillis(100), Duration.ofSeconds(1),
+            Duration.ofSeconds(30), spoolFile(), shutdownTimeout);
+    }
+
+    private Path spoolFile() {
+        return tempDir.resolve("audit-spool.ndjson");
+    }
+}
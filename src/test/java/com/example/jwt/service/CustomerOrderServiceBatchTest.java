@@ -0,0 +1,68 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.BatchItemResult;
+import com.example.jwt.model.BatchResult;
+import com.example.jwt.model.CustomerOrder;
+import com.example.jwt.repo.CustomerOrderJdbcRepository;
+import com.example.jwt.repo.CustomerOrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CustomerOrderServiceBatchTest {
+
+    private final CustomerOrderJdbcRepository jdbcRepository = mock(CustomerOrderJdbcRepository.class);
+
+    private final OrderChangeCounter orderChangeCounter = mock(OrderChangeCounter.class);
+
+    private final CustomerOrderService service = new CustomerOrderService(mock(CustomerOrderRepository.class),
+        jdbcRepository, mock(PlatformTransactionManager.class), orderChangeCounter, mock(AuditService.class),
+        new SimpleMeterRegistry(), 1000, 3, true, 100, Duration.ofMinutes(1), Duration.ofSeconds(5));
+
+    @Test
+    void refusedChunkIsRetriedOrderByOrderAndFailedChunksDontStopTheUpload() {
+        CustomerOrder first = order("o1", "alice");
+        CustomerOrder tooLong = order("o2", "bob");
+        CustomerOrder duplicate = order("o3", "carol");
+        CustomerOrder unreachable = order("o4", "dave");
+        when(jdbcRepository.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<CustomerOrder> orders = invocation.getArgument(0);
+            if (orders.contains(unreachable)) {
+                throw new DataAccessResourceFailureException("connection refused");
+            }
+            if (orders.contains(tooLong)) {
+                throw new DataIntegrityViolationException("value too long for type character varying(255)");
+            }
+            return orders.stream().mapToInt(order -> order == duplicate ? 0 : 1).toArray();
+        });
+
+        BatchResult result = service.addCustomerOrders(
+            Stream.of(first, tooLong, duplicate, unreachable, null).iterator());
+
+        assertEquals(List.of(BatchItemResult.Status.CREATED, BatchItemResult.Status.REJECTED,
+                BatchItemResult.Status.DUPLICATE, BatchItemResult.Status.FAILED, BatchItemResult.Status.REJECTED),
+            result.getItems().stream().map(BatchItemResult::getStatus).toList());
+        assertEquals(1, result.getCreated());
+        assertEquals(1, result.getDuplicates());
+        assertEquals(2, result.getRejected());
+        assertEquals(1, result.getFailed());
+        verify(orderChangeCounter).changed(List.of("alice"));
+    }
+
+    private static CustomerOrder order(String orderId, String customerName) {
+        return CustomerOrder.builder().orderId(orderId).productName("product").customerName(customerName)
+            .deliveryAddress("address").build();
+    }
+}
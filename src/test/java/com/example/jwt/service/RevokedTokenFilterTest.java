@@ -0,0 +1,111 @@
+package com.example.jwt.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RevokedTokenFilterTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void addReportsDuplicates() {
+        RevokedTokenFilter filter = new RevokedTokenFilter(100);
+        assertTrue(filter.add("jti", NOW + 1000));
+        assertFalse(filter.add("jti", NOW + 1000));
+        assertTrue(filter.isRevoked("jti", NOW));
+        assertFalse(filter.isRevoked("other", NOW));
+        assertFalse(filter.isRevoked(null, NOW));
+        assertFalse(filter.isRevoked("jti", NOW + 1000));
+    }
+
+    @Test
+    void noFalseNegativesAfterPurges() {
+        // far more ids than the filter was sized for, so the rebuilt bloom filters have to grow
+        RevokedTokenFilter filter = new RevokedTokenFilter(1000);
+        List<String> ids = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            // spread over the next four seconds, a quarter of the ids expires with every purge round
+            long expiresAt = NOW + (i % 4 + 1) * 1000L - 1;
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            expiries.add(expiresAt);
+            filter.add(id, expiresAt);
+        }
+
+        for (int round = 1; round <= 4; round++) {
+            long now = NOW + round * 1000L;
+            filter.purgeExpired(now);
+            int live = 0;
+            for (int i = 0; i < ids.size(); i++) {
+                boolean expired = expiries.get(i) <= now;
+                assertEquals(!expired, filter.isRevoked(ids.get(i), now), "id " + i + " in round " + round);
+                if (!expired) {
+                    live++;
+                }
+            }
+            assertEquals(live, filter.size());
+
+            // ids revoked after a purge land in the rebuilt filter
+            String added = UUID.randomUUID().toString();
+            filter.add(added, now + 10_000);
+            assertTrue(filter.isRevoked(added, now));
+            ids.add(added);
+            expiries.add(now + 10_000);
+        }
+    }
+
+    @Test
+    void noFalseNegativesWhilePurging() throws Exception {
+        RevokedTokenFilter filter = new RevokedTokenFilter(100);
+        List<String> live = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = "live-" + i;
+            live.add(id);
+            filter.add(id, Long.MAX_VALUE);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int round = 0; round < 200; round++) {
+                    for (int i = 0; i < 100; i++) {
+                        filter.add("expiring-" + round + "-" + i, NOW + round);
+                    }
+                    filter.purgeExpired(NOW + round);
+                }
+                running.set(false);
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(executor.submit(() -> {
+                    do {
+                        for (String id : live) {
+                            assertTrue(filter.isRevoked(id, NOW), id);
+                        }
+                    } while (running.get());
+                }));
+            }
+            writer.get(60, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+    }
+}
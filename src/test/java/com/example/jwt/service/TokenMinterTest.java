@@ -0,0 +1,103 @@
+package com.example.jwt.service;
+
+import com.example.jwt.model.VerifiedToken;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TokenMinterTest {
+
+    private static final long NOW = 1_700_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private SigningKeyRing signingKeyRing;
+
+    private JwtService jwtService;
+
+    private final TokenMinter tokenMinter = new TokenMinter();
+
+    @BeforeEach
+    void setUp() {
+        signingKeyRing = new SigningKeyRing(tempDir.resolve("jwt-keys.p12"), "test", 3, false);
+        jwtService = new JwtService(signingKeyRing, new TokenPreValidator(4096, 10_000, Duration.ofMinutes(1)),
+            new AuthMetrics(new SimpleMeterRegistry()), true);
+    }
+
+    @Test
+    void plainClaimsMatchJjwtByteForByte() {
+        SigningKeyRing.SigningKey signingKey = signingKeyRing.getActiveKey();
+        // lengths that leave every base64 remainder, and a roles list long enough to grow the buffers
+        List<TokenMinter.Spec> specs = List.of(
+            spec("u", null),
+            spec("us", List.of()),
+            spec("usr", List.of("USER")),
+            spec("user.name@example.com", List.of("USER", "ADMIN")),
+            spec("user", List.of("R".repeat(2000), "S".repeat(3000))),
+            new TokenMinter.Spec("user", VerifiedToken.REFRESH_TYPE, "family", null, "id", 0, Long.MAX_VALUE / 1000));
+
+        for (TokenMinter.Spec spec : specs) {
+            String reference = jwtService.mintWithJjwt(signingKey, spec);
+            assertEquals(reference, tokenMinter.mint(signingKey, spec), spec.toString());
+            assertEquals(reference, jwtService.mint(signingKey, spec), spec.toString());
+        }
+    }
+
+    @Test
+    void escapedAndNonAsciiClaimsMatchJjwt() {
+        SigningKeyRing.SigningKey signingKey = signingKeyRing.getActiveKey();
+        List<TokenMinter.Spec> specs = List.of(
+            spec("quo\"te", null),
+            spec("back\\slash", null),
+            spec("new\nline", null),
+            spec("control\u0001", null),
+            spec("del\u007f", null),
+            spec("Zoë", null),
+            spec("日本語", List.of("USER")),
+            spec("emoji😀", null),
+            spec("user", List.of("USER", "ÄDMIN")),
+            spec("user", List.of("a\"b")));
+
+        for (TokenMinter.Spec spec : specs) {
+            // the fast minter declines these, so the token must come out exactly as jjwt writes it
+            assertNull(tokenMinter.mint(signingKey, spec), spec.toString());
+            String token = jwtService.mint(signingKey, spec);
+            assertEquals(jwtService.mintWithJjwt(signingKey, spec), token, spec.toString());
+
+            Claims claims = Jwts.parserBuilder().setSigningKey(signingKey.key())
+                .setClock(() -> new Date(NOW * 1000)).build()
+                .parseClaimsJws(token).getBody();
+            assertEquals(spec.userName(), claims.getSubject());
+            assertEquals(spec.userName(), claims.get("username"));
+            assertEquals(spec.roles(), claims.get(VerifiedToken.ROLES_CLAIM));
+        }
+    }
+
+    @Test
+    void headerFollowsTheActiveKey() {
+        TokenMinter.Spec spec = spec("user", null);
+        SigningKeyRing.SigningKey first = signingKeyRing.getActiveKey();
+        assertEquals(jwtService.mintWithJjwt(first, spec), tokenMinter.mint(first, spec));
+
+        signingKeyRing.rotate();
+        SigningKeyRing.SigningKey second = signingKeyRing.getActiveKey();
+        assertEquals(jwtService.mintWithJjwt(second, spec), tokenMinter.mint(second, spec));
+    }
+
+    private static TokenMinter.Spec spec(String userName, List<String> roles) {
+        return new TokenMinter.Spec(userName, VerifiedToken.ACCESS_TYPE, "f3b1c2a4-family", roles,
+            "0c6d7e8f-token", NOW, NOW + 600);
+    }
+}